@@ -1,8 +1,7 @@
 import java.util.*;
 
 public final class ClerkMenuState extends WarehouseState {
-  private static ClerkMenuState instance;
-  private static Context context;
+  private final Context context; // the session this state belongs to
 
   // --- Menu command constants ---
   private static final int EXIT = 0;
@@ -12,36 +11,33 @@ public final class ClerkMenuState extends WarehouseState {
   private static final int SHOW_CLIENTS_WITH_BALANCE = 4;
   private static final int RECORD_PAYMENT = 5;
   private static final int BECOME_CLIENT = 6;
+  private static final int SHOW_TOP_DEBTORS = 7;
   private static final int HELP = 9;
 
-  private ClerkMenuState() {}
-  public static ClerkMenuState instance() {
-    if (instance == null) instance = new ClerkMenuState();
-    return instance;
-  }
-  public static void setContext(Context ctx) { context = ctx; }
+  ClerkMenuState(Context context) { this.context = context; }
   
   private String getToken(String prompt) { return context.getToken(prompt); }
   private int getNumber(String prompt)   { return context.getInt(prompt);   }
   private double getDouble(String prompt) {
     while (true) {
       try { return Double.parseDouble(getToken(prompt)); }
-      catch (NumberFormatException e) { System.out.println("Enter a number."); }
+      catch (NumberFormatException e) { context.error("Enter a number."); }
     }
   }
 
   // ---------- Menu + loop ----------
   private void help() {
-    System.out.println();
-    System.out.println("Clerk commands:");
-    System.out.println(EXIT + "  Logout");
-    System.out.println(ADD_CLIENT + "  Add client");
-    System.out.println(SHOW_PRODUCTS + "  Show products (qty & price)");
-    System.out.println(SHOW_CLIENTS + "  Show all clients");
-    System.out.println(SHOW_CLIENTS_WITH_BALANCE + "  Show clients with outstanding balance");
-    System.out.println(RECORD_PAYMENT + "  Record payment from client");
-    System.out.println(BECOME_CLIENT + "  Become a client (enter ClientID)");
-    System.out.println(HELP + "  Help");
+    context.say("");
+    context.say("Clerk commands:");
+    context.say(EXIT + "  Logout");
+    context.say(ADD_CLIENT + "  Add client");
+    context.say(SHOW_PRODUCTS + "  Show products (qty & price)");
+    context.say(SHOW_CLIENTS + "  Show all clients");
+    context.say(SHOW_CLIENTS_WITH_BALANCE + "  Show clients with outstanding balance");
+    context.say(RECORD_PAYMENT + "  Record payment from client");
+    context.say(BECOME_CLIENT + "  Become a client (enter ClientID)");
+    context.say(SHOW_TOP_DEBTORS + "  Show largest debtors");
+    context.say(HELP + "  Help");
   }
 
   private int getCommand() {
@@ -50,7 +46,7 @@ public final class ClerkMenuState extends WarehouseState {
         int cmd = Integer.parseInt(getToken("Enter command (9 for help)"));
         if (cmd >= 0 && cmd <= 9) return cmd;
       } catch (NumberFormatException ignore) {}
-      System.out.println("Enter a number from the menu.");
+      context.error("Enter a number from the menu.");
     }
   }
 
@@ -67,8 +63,9 @@ public final class ClerkMenuState extends WarehouseState {
         case SHOW_CLIENTS_WITH_BALANCE: showClientsWithOutstandingBalance(); break;
         case RECORD_PAYMENT:            recordPayment();                     break;
         case BECOME_CLIENT:             becomeClient();                      return; // stop Clerk loop; let context run the new Client state immediately
+        case SHOW_TOP_DEBTORS:          showTopDebtors();                    break;
         case HELP:                      help();                              break;
-        default:                        System.out.println("Invalid.");
+        default:                        context.error("Invalid.");
       }
     }
     logout();
@@ -83,55 +80,78 @@ public final class ClerkMenuState extends WarehouseState {
     try {
       Client c = context.getWarehouse().addClient(name, address);
       if (c != null) {
-        System.out.printf("Client added: %s  %-20s  balance: $%.2f%n",
+        context.sayf("Client added: %s  %-20s  balance: $%.2f%n",
             c.getId(), c.getName(), c.getBalance());
+        context.emit("client", c.getId(), c.getName(), c.getAddress(), Money.format(c.getBalanceCents()));
       } else {
-        System.out.println("Unable to add client.");
+        context.error("Unable to add client.");
       }
     } catch (Exception e) {
-      System.out.println("Error adding client: " + e.getMessage());
+      context.error("Error adding client: " + e.getMessage());
     }
   }
 
   private void showAllProducts() {
     // Use your Warehouse reporter to keep output consistent
-    context.getWarehouse().printAllProducts();
+    try (ReportWriter w = context.report()) { context.getWarehouse().reportProducts(w); }
   }
 
   private void showAllClients() {
-    context.getWarehouse().printAllClients();
+    try (ReportWriter w = context.report()) { context.getWarehouse().reportClients(w); }
   }
 
+  // Served from the Warehouse's debtor index, largest balance first
   private void showClientsWithOutstandingBalance() {
-    Iterator it = context.getWarehouse().getClients();
+    Warehouse w = context.getWarehouse();
     boolean any = false;
-    while (it != null && it.hasNext()) {
-      Client c = (Client) it.next();
-      if (c.getBalance() > 0.0) {
-        if (!any) {
-          System.out.println("Clients with outstanding balance:");
-          any = true;
-        }
-        System.out.printf("%-4s %-20s balance: $%.2f%n", c.getId(), c.getName(), c.getBalance());
+    for (DebtorIndex.Debtor d : w.getDebtors()) {
+      if (!any) {
+        context.say("Clients with outstanding balance:");
+        any = true;
       }
+      printDebtor(d);
     }
-    if (!any) System.out.println("No clients with outstanding balance.");
+    if (!any) context.say("No clients with outstanding balance.");
+    printReceivables(w, any);
+  }
+
+  private void showTopDebtors() {
+    int n = getNumber("How many");
+    Warehouse w = context.getWarehouse();
+    List<DebtorIndex.Debtor> top = w.getTopDebtors(n);
+    if (top.isEmpty()) context.say("No clients with outstanding balance.");
+    for (DebtorIndex.Debtor d : top) printDebtor(d);
+    printReceivables(w, !top.isEmpty());
+  }
+
+  private void printDebtor(DebtorIndex.Debtor d) {
+    Client c = d.getClient();
+    context.sayf("%-4s %-20s balance: $%.2f%n", c.getId(), c.getName(), d.getBalance());
+    context.emit("debtor", c.getId(), c.getName(), Money.format(d.getBalanceCents()));
+  }
+
+  // Headless output always ends a debtor listing with the totals, even when nobody owes anything
+  private void printReceivables(Warehouse w, boolean any) {
+    if (any) context.sayf("Total receivables: $%.2f (%d clients)%n",
+        Money.toDollars(w.getReceivablesCents()), w.getDebtorCount());
+    context.emit("receivables", Money.format(w.getReceivablesCents()), w.getDebtorCount());
   }
 
   private void recordPayment() {
     String clientId = getToken("Client ID");
     Client c = context.getWarehouse().findClientById(clientId);
-    if (c == null) { System.out.println("No such client"); return; }
+    if (c == null) { context.error("No such client"); return; }
 
     double amount = getDouble("Payment amount (e.g., 19.95)");
-    if (amount <= 0) { System.out.println("Amount must be positive."); return; }
+    if (amount <= 0) { context.error("Amount must be positive."); return; }
 
     boolean ok = context.getWarehouse().recordPayment(clientId, amount);
     if (ok) {
-      System.out.printf("Payment recorded, new balance for %s: $%.2f%n",
+      context.sayf("Payment recorded, new balance for %s: $%.2f%n",
           c.getId(), c.getBalance());
+      context.emit("payment", c.getId(), Money.format(c.getBalanceCents()));
     } else {
-      System.out.println("Payment failed.");
+      context.error("Payment failed.");
     }
   }
 
@@ -139,7 +159,7 @@ public final class ClerkMenuState extends WarehouseState {
     String id = getToken("Enter Client ID");
     Client c = context.getWarehouse().findClientById(id);
     if (c == null) {
-      System.out.println("No such client");
+      context.error("No such client");
       return;
     }
     context.setClientId(id);
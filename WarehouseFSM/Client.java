@@ -1,5 +1,10 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -13,11 +18,46 @@ public class Client implements Serializable {
   private Wishlist wishlist = new Wishlist(); // your existing class
 
   // Accounting + invoices (Invoices live as Warehouse.Invoice)
-  private double balance = 0.0;
-  private final List<Warehouse.Invoice> invoices = new ArrayList<>();
+  private long balanceCents;
+  private List<Warehouse.Invoice> invoices = new ArrayList<>();
+  // History still in a snapshot shard (fast-start retrieve); decoded on first getInvoices().
+  // While set, invoices holds only those added since the load.
+  private transient InvoiceHistory history;
+  private transient int historyLength; // invoices in history
+  // Snapshot copies only: the live client and its full invoice count (history included) as of
+  // the snapshot. Invoices are only appended, so that prefix never changes; the snapshot writer
+  // takes it, under the live client's monitor, after the pause.
+  private transient Client prefixOwner;
+  private transient int prefixLength;
+  // Copy-on-write for background snapshots (see Warehouse.snapshot). Each part records the last
+  // snapshot epoch it was preserved for (or already written by): the wishlist under the client's
+  // stripe, balance and invoice count under this monitor. The first change in a newer epoch keeps
+  // the old state here until the snapshot writer has taken it.
+  private transient long wishlistEpoch;
+  private transient Wishlist frozenWishlist;
+  private transient long accountEpoch;
+  private transient boolean accountFrozen;
+  private transient long frozenBalance;
+  private transient int frozenInvoices;
+  private transient int slot = -1; // position in its ClientList (WaitQueue entries refer to it)
+  // Index of this client's open waitlist entries across all products, as Warehouse handles
+  // (product position + WaitQueue seq); rebuilt on load
+  private transient long[] backorders;
+  private transient int backorderCount;
+  private transient DebtorIndex debtors; // told of every balance change by the owning Warehouse
+
+  /** Source of a client's invoice history that has not been decoded yet. */
+  interface InvoiceHistory {
+    List<Warehouse.Invoice> load(String clientId) throws IOException;
+  }
 
   public Client(String name, String address) {
-    this.id = ClientIdServer.instance().nextId();
+    this(ClientIdServer.instance().nextId(), name, address);
+  }
+
+  /** Recreates a client with a known id (journal replay, loaders). */
+  Client(String id, String name, String address) {
+    this.id = id;
     this.name = name;
     this.address = address;
     this.wishlist = new Wishlist();
@@ -32,16 +72,203 @@ public class Client implements Serializable {
 
   public Wishlist getWishlist() { return wishlist; }
 
-  public double getBalance() { return balance; }
-  public void debit(double amt) { balance += amt; }   // invoice raises balance
-  public void credit(double amt) { balance -= amt; }  // payment lowers balance
+  // Balance and invoices are guarded by this Client's monitor, the innermost (leaf) lock
+  public synchronized long getBalanceCents() { return balanceCents; }
+  public double getBalance() { return Money.toDollars(getBalanceCents()); }
+  public synchronized void debit(long cents) { setBalance(balanceCents + cents); }   // invoice raises balance
+  public synchronized void credit(long cents) { setBalance(balanceCents - cents); }  // payment lowers balance
+
+  /** Loader hook: balance as stored in a snapshot. */
+  synchronized void restoreBalance(long cents) { setBalance(cents); }
+
+  private void setBalance(long cents) {
+    long old = balanceCents;
+    balanceCents = cents;
+    if (debtors != null) debtors.update(this, old, cents);
+  }
+
+  /** Attaches the Warehouse's debtor index and enters the current balance in it. */
+  synchronized void watchBalance(DebtorIndex index) {
+    debtors = index;
+    index.update(this, 0, balanceCents);
+  }
+
+  public synchronized void addInvoice(Warehouse.Invoice inv) { invoices.add(inv); }
+  /** Snapshot copy, safe to iterate while other sessions add invoices. */
+  public synchronized List<Warehouse.Invoice> getInvoices() {
+    materializeInvoices();
+    return Collections.unmodifiableList(new ArrayList<>(invoices));
+  }
+  /** Invoices only ever get appended, so a position always names the same invoice. */
+  public synchronized int getInvoiceCount() {
+    materializeInvoices();
+    return invoices.size();
+  }
+  public synchronized Warehouse.Invoice getInvoice(int i) {
+    materializeInvoices();
+    return invoices.get(i);
+  }
+
+  int getSlot() { return slot; }
+  void setSlot(int slot) { this.slot = slot; }
+
+  // Backorder index, guarded by this monitor; entries are added/removed under their product's stripe.
+  // An open-addressing hash set of handles (linear probing, NO_BACKORDER marks a free slot), so
+  // filling or cancelling one entry is O(1) however many backorders the client has open.
+  private static final long NO_BACKORDER = -1L; // handles are never negative
+  synchronized void addBackorder(long handle) {
+    if (backorders == null) backorders = newBackorderTable(8);
+    else if ((backorderCount + 1) * 4 > backorders.length * 3) rehashBackorders(backorders.length * 2);
+    int mask = backorders.length - 1;
+    int i = backorderHome(handle, mask);
+    while (backorders[i] != NO_BACKORDER) {
+      if (backorders[i] == handle) return;
+      i = (i + 1) & mask;
+    }
+    backorders[i] = handle;
+    backorderCount++;
+  }
+  synchronized void removeBackorder(long handle) {
+    if (backorders == null) return;
+    int mask = backorders.length - 1;
+    int i = backorderHome(handle, mask);
+    while (backorders[i] != handle) {
+      if (backorders[i] == NO_BACKORDER) return;
+      i = (i + 1) & mask;
+    }
+    if (--backorderCount == 0) { backorders = null; return; }
+    // Shift later entries of the probe run back into the hole, so lookups never stop early
+    for (int j = (i + 1) & mask; backorders[j] != NO_BACKORDER; j = (j + 1) & mask) {
+      int home = backorderHome(backorders[j], mask);
+      if (((j - home) & mask) >= ((j - i) & mask)) {
+        backorders[i] = backorders[j];
+        i = j;
+      }
+    }
+    backorders[i] = NO_BACKORDER;
+  }
+  synchronized long[] backorderHandles() {
+    long[] handles = new long[backorderCount];
+    if (backorders == null) return handles;
+    int n = 0;
+    for (long h : backorders) if (h != NO_BACKORDER) handles[n++] = h;
+    return handles;
+  }
+  private static long[] newBackorderTable(int capacity) {
+    long[] table = new long[capacity];
+    Arrays.fill(table, NO_BACKORDER);
+    return table;
+  }
+  private void rehashBackorders(int capacity) {
+    long[] old = backorders;
+    backorders = newBackorderTable(capacity);
+    backorderCount = 0;
+    for (long h : old) if (h != NO_BACKORDER) addBackorder(h);
+  }
+  // Handles differ mostly in the low (seq) bits; the multiply spreads them over the high half
+  private static int backorderHome(long handle, int mask) {
+    return (int) ((handle * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+  }
+
+  /** Loader hook: invoice history (count invoices) is decoded from the snapshot on first access. */
+  synchronized void deferInvoices(InvoiceHistory history, int count) {
+    this.history = history;
+    this.historyLength = count;
+  }
+
+  private void materializeInvoices() {
+    if (prefixOwner != null) {
+      List<Warehouse.Invoice> all;
+      synchronized (prefixOwner) {
+        // Decoding the live client's history here (not a private copy of it) lets the old
+        // snapshot's shards be released before the new snapshot replaces them
+        prefixOwner.materializeInvoices();
+        all = new ArrayList<>(prefixOwner.invoices.subList(0, prefixLength));
+      }
+      all.addAll(invoices);
+      invoices = all;
+      prefixOwner = null;
+    }
+    if (history == null) return;
+    try {
+      List<Warehouse.Invoice> all = history.load(id);
+      all.addAll(invoices); // added since the load, so they come last
+      invoices = all;
+      history = null;
+    } catch (IOException e) {
+      throw new UncheckedIOException("cannot load invoices for " + id, e);
+    }
+  }
+
+  private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+    materializeInvoices();
+    out.defaultWriteObject();
+  }
+
+  // Clients saved before fixed-point money carry a double balance
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField f = in.readFields();
+    id = (String) f.get("id", null);
+    name = (String) f.get("name", null);
+    address = (String) f.get("address", null);
+    wishlist = (Wishlist) f.get("wishlist", null);
+    invoices = (List<Warehouse.Invoice>) f.get("invoices", null);
+    balanceCents = Warehouse.hasField(f, "balanceCents") ? f.get("balanceCents", 0L) : Money.cents(f.get("balance", 0.0));
+    slot = -1;
+  }
+
+  /** Preserves the wishlist before its first change in this epoch; caller holds the client's stripe. */
+  void freezeWishlist(long epoch) {
+    if (epoch <= wishlistEpoch) return;
+    frozenWishlist = wishlist.snapshotCopy();
+    wishlistEpoch = epoch;
+  }
+
+  /** Preserves balance and invoice count before their first change in this epoch. */
+  synchronized void freezeAccount(long epoch) {
+    if (epoch <= accountEpoch) return;
+    frozenBalance = balanceCents;
+    frozenInvoices = invoiceCount();
+    accountFrozen = true;
+    accountEpoch = epoch;
+  }
+
+  /** A client added after the pause of this epoch's snapshot is not part of it: nothing to preserve. */
+  synchronized void joinEpoch(long epoch) {
+    wishlistEpoch = accountEpoch = epoch;
+  }
+
+  /** The wishlist as of the snapshot epoch, as a detached copy; caller holds the client's stripe. */
+  Wishlist wishlistAt(long epoch) {
+    Wishlist w = (wishlistEpoch == epoch && frozenWishlist != null) ? frozenWishlist : wishlist.snapshotCopy();
+    frozenWishlist = null;
+    wishlistEpoch = epoch;
+    return w;
+  }
+
+  /**
+   * Detached copy as of the snapshot epoch, around a wishlist from wishlistAt. O(1) in the invoice
+   * history: only its length is taken here, the invoices themselves (immutable) are collected on
+   * first access.
+   */
+  synchronized Client snapshotCopy(long epoch, Wishlist wishlistAtEpoch) {
+    boolean frozen = accountEpoch == epoch && accountFrozen;
+    Client c = new Client(id, name, address);
+    c.wishlist = wishlistAtEpoch;
+    c.balanceCents = frozen ? frozenBalance : balanceCents;
+    c.prefixOwner = this;
+    c.prefixLength = frozen ? frozenInvoices : invoiceCount();
+    accountFrozen = false;
+    accountEpoch = epoch;
+    return c;
+  }
 
-  public void addInvoice(Warehouse.Invoice inv) { invoices.add(inv); }
-  public List<Warehouse.Invoice> getInvoices() {
-    return Collections.unmodifiableList(invoices);
+  private int invoiceCount() {
+    return ((history == null) ? 0 : historyLength) + invoices.size();
   }
 
   @Override public String toString() {
-    return String.format("%s  %-20s  balance: $%.2f", id, name, balance);
+    return String.format("%s  %-20s  balance: $%.2f", id, name, getBalance());
   }
 }
@@ -1,23 +1,23 @@
 import java.io.*;
 
+/** Client id facade; the counter itself lives in IdService and is saved with the Warehouse. */
 public class ClientIdServer implements Serializable {
   private static final long serialVersionUID = 1L;
 
-  private int idCounter = 1;
   private static ClientIdServer server;
 
   private ClientIdServer() { }
 
-  public static ClientIdServer instance() {
+  public static synchronized ClientIdServer instance() {
     if (server == null) {
       server = new ClientIdServer();
     }
     return server;
   }
 
-  /** Returns next client id, e.g., C1, C2, ... */
-  public synchronized String nextId() {
-    return "C" + (idCounter++);
+  /** Returns next client id, e.g., C1, C2, ... (lock-free, block-allocated per thread) */
+  public String nextId() {
+    return IdService.instance().next(IdService.Sequence.CLIENT);
   }
 
   // Persistence helpers
@@ -1,11 +1,15 @@
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.*;
 
 public class ClientList implements Serializable {
   private static final long serialVersionUID = 1L;
 
-  // Keep insertion order so listings are stable
-  private final List<Client> clients = new LinkedList<>();
+  // Concurrent id index for lock-free O(1) lookups from any session
+  private transient ConcurrentHashMap<String, Client> index = new ConcurrentHashMap<>();
+  // Append-only array keeps insertion order so listings are stable; readers see [0, count)
+  private transient volatile Client[] ordered = new Client[16];
+  private transient volatile int count;
 
   private static ClientList clientList;
 
@@ -18,43 +22,93 @@ public class ClientList implements Serializable {
     return clientList;
   }
 
-  /** Insert a client; returns true if added. */
-public boolean insertClient(Client client) {
+  /** Insert a client; returns true if added, false on a duplicate id. */
+public synchronized boolean insertClient(Client client) {
   if (client == null) return false;
   if (client.getId() == null || client.getId().isBlank()) {
     client.setId(ClientIdServer.instance().nextId()); // <-- assign if missing
   }
-  return clients.add(client);
+  if (index.putIfAbsent(client.getId(), client) != null) return false;
+  append(client);
+  return true;
 }
 
-  /** Iterator used by Warehouse.getClients(). */
-  public Iterator getClients() {
-    return clients.iterator(); // raw Iterator to match rest of design
+  /** Empty list that is not (yet) the singleton; filled by loaders via restoreClient. */
+  static ClientList detached() {
+    return new ClientList();
+  }
+
+  /** Loader insert: keeps the id as stored and skips duplicates. */
+  void restoreClient(Client client) {
+    if (index.putIfAbsent(client.getId(), client) == null) append(client);
+  }
+
+  /** Makes this (loaded) instance the process-wide singleton. */
+  void install() {
+    clientList = this;
+  }
+
+  private void append(Client client) {
+    if (count == ordered.length) ordered = Arrays.copyOf(ordered, count * 2);
+    client.setSlot(count);
+    ordered[count] = client;
+    count = count + 1; // volatile write publishes the slot to readers
+  }
+
+  /** Iterator used by Warehouse.getClients(). Never throws ConcurrentModificationException. */
+  public Iterator<Client> getClients() {
+    final int n = count;          // read count first, then the array it indexes
+    final Client[] snap = ordered;
+    return new Iterator<Client>() {
+      private int i = 0;
+      public boolean hasNext() { return i < n; }
+      public Client next() {
+        if (i >= n) throw new NoSuchElementException();
+        return snap[i++];
+      }
+    };
   }
 
   /** helper for direct lookup. */
   public Client get(String clientId) {
     if (clientId == null) return null;
-    for (Client c : clients) {
-      if (clientId.equals(c.getId())) return c;
-    }
-    return null;
+    return index.get(clientId);
   }
 
-  public int size() { return clients.size(); }
+  public int size() { return count; }
+
+  /** Client at a position (its slot), or null; positions never change once assigned. */
+  Client at(int slot) {
+    int n = count;                // read count first, then the array it indexes
+    Client[] snap = ordered;
+    return (slot >= 0 && slot < n) ? snap[slot] : null;
+  }
 
   @Override
   public String toString() {
-    return clients.toString();
+    return Arrays.asList(ordered).subList(0, count).toString();
   }
 
   // --- Serialization helpers to keep the singleton consistent after load ---
-  private void writeObject(ObjectOutputStream out) throws IOException {
+  private synchronized void writeObject(ObjectOutputStream out) throws IOException {
     out.defaultWriteObject();
+    out.writeInt(count);
+    for (int i = 0; i < count; i++) out.writeObject(ordered[i]);
   }
 
   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
-    in.defaultReadObject();
+    ObjectInputStream.GetField f = in.readFields();
+    // Saved before the id index: the clients were a List field rather than a count plus entries
+    List<?> legacy = Warehouse.hasField(f, "clients") ? (List<?>) f.get("clients", null) : null;
+    int n = (legacy != null) ? legacy.size() : in.readInt();
+    // Rebuild the index from the loaded clients so it always matches Client.getId()
+    index = new ConcurrentHashMap<>(Math.max(16, n * 4 / 3 + 1));
+    ordered = new Client[Math.max(16, n)];
+    count = 0;
+    for (int i = 0; i < n; i++) {
+      Client c = (Client) ((legacy != null) ? legacy.get(i) : in.readObject());
+      if (index.putIfAbsent(c.getId(), c) == null) append(c);
+    }
   }
 
   /** Ensure the deserialized instance also becomes the process-wide singleton. */
@@ -1,8 +1,7 @@
 import java.util.*;
 
 public final class ClientMenuState extends WarehouseState { 
-  private static ClientMenuState instance;
-  private static Context context; 
+  private final Context context; // the session this state belongs to
 
   // --- Menu command constants ---
   private static final int EXIT = 0;
@@ -12,15 +11,11 @@ public final class ClientMenuState extends WarehouseState {
   private static final int ADD_WISHLIST = 4;
   private static final int SHOW_WISHLIST = 5;
   private static final int PLACE_ORDER = 6;
+  private static final int SHOW_BACKORDERS = 7;
+  private static final int CANCEL_BACKORDER = 8;
   private static final int HELP = 9;
 
-  private ClientMenuState() {}
-
-  public static ClientMenuState instance() {
-    if (instance == null) instance = new ClientMenuState();
-    return instance;
-  }
-  public static void setContext(Context ctx) { context = ctx; }
+  ClientMenuState(Context context) { this.context = context; }
 
 
   private String getToken(String prompt) { 
@@ -33,15 +28,17 @@ public final class ClientMenuState extends WarehouseState {
 
   // ---------- Menu + loop ----------
   public void help() {
-    System.out.println("\nClient commands:");
-    System.out.println(EXIT + "  Exit/Logout");
-    System.out.println(SHOW_DETAILS + "  Show client details");
-    System.out.println(SHOW_PRODUCTS + "  Show products (price)");
-    System.out.println(SHOW_TRANSACTIONS + "  Show client transactions");
-    System.out.println(ADD_WISHLIST + "  Add item to wishlist");
-    System.out.println(SHOW_WISHLIST + "  Display wishlist");
-    System.out.println(PLACE_ORDER + "  Place an order");
-    System.out.println(HELP + "  Help");
+    context.say("\nClient commands:");
+    context.say(EXIT + "  Exit/Logout");
+    context.say(SHOW_DETAILS + "  Show client details");
+    context.say(SHOW_PRODUCTS + "  Show products (price)");
+    context.say(SHOW_TRANSACTIONS + "  Show client transactions");
+    context.say(ADD_WISHLIST + "  Add item to wishlist");
+    context.say(SHOW_WISHLIST + "  Display wishlist");
+    context.say(PLACE_ORDER + "  Place an order");
+    context.say(SHOW_BACKORDERS + "  Show open backorders");
+    context.say(CANCEL_BACKORDER + "  Cancel a backorder");
+    context.say(HELP + "  Help");
   }
 
   private int getCommand() {
@@ -50,7 +47,7 @@ public final class ClientMenuState extends WarehouseState {
         int cmd = Integer.parseInt(getToken("Enter command (9 for help)"));
         if (cmd >= 0 && cmd <= 9) return cmd;
       } catch (NumberFormatException ignore) {}
-      System.out.println("Enter a number from the menu.");
+      context.error("Enter a number from the menu.");
     }
   }
 
@@ -65,8 +62,10 @@ public final class ClientMenuState extends WarehouseState {
         case ADD_WISHLIST:       addToWishlist();          break;
         case SHOW_WISHLIST:      displayWishlist();        break;
         case PLACE_ORDER:        placeOrder();             break;
+        case SHOW_BACKORDERS:    showBackorders();         break;
+        case CANCEL_BACKORDER:   cancelBackorder();        break;
         case HELP:               help();                   break;
-        default:                 System.out.println("Invalid."); 
+        default:                 context.error("Invalid.");
       }
     }
     logout();
@@ -79,27 +78,24 @@ public final class ClientMenuState extends WarehouseState {
     String cid = context.getClientId();
     Client c = context.getWarehouse().findClientById(cid);
     if (c == null) { 
-      System.out.println("Client not found."); 
+      context.error("Client not found."); 
       return; 
     }
-    System.out.printf("%s  %-20s  %-20s  balance: $%.2f%n",
+    context.sayf("%s  %-20s  %-20s  balance: $%.2f%n",
         c.getId(), c.getName(), c.getAddress(), c.getBalance());
+    context.emit("client", c.getId(), c.getName(), c.getAddress(), Money.format(c.getBalanceCents()));
   }
 
   private void listProducts() {
-    Iterator it = context.getWarehouse().getProducts();
-    if (it == null || !it.hasNext()) {
-      System.out.println("No products available.");
-      return;
-    }
-    while (it.hasNext()) {
-      Product p = (Product) it.next();
-      System.out.printf("%s  %-20s  $%.2f%n", p.getId(), p.getName(), p.getUnitPrice());
+    try (ReportWriter w = context.report()) {
+      context.getWarehouse().reportPriceList(w);
     }
   }
 
   private void listClientTransactions() {
-    context.getWarehouse().printInvoices(context.getClientId());
+    try (ReportWriter w = context.report()) {
+      context.getWarehouse().reportInvoices(context.getClientId(), w);
+    }
   }
 
   private void addToWishlist() {
@@ -109,25 +105,28 @@ public final class ClientMenuState extends WarehouseState {
       WishlistItem item = context.getWarehouse()
           .addToWishlist(context.getClientId(), pid, qty);
       if (item != null) {
-        System.out.printf("Added to wishlist: %s x %d%n", pid, item.getQty());
+        context.sayf("Added to wishlist: %s x %d%n", pid, item.getQty());
+        context.emit("wish", pid, item.getQty());
       } else {
-        System.out.println("Unable to add to wishlist (check product/quantity).");
+        context.error("Unable to add to wishlist (check product/quantity).");
       }
     } catch (Exception e) {
-      System.out.println("Error: " + e.getMessage());
+      context.error("Error: " + e.getMessage());
     }
   }
 
   private void displayWishlist() {
     Iterator it = context.getWarehouse().getWishlistItems(context.getClientId());
     if (it == null || !it.hasNext()) {
-      System.out.println("No wishlist for this client.");
+      context.say("No wishlist for this client.");
+      context.emit("none");
       return;
     }
     while (it.hasNext()) {
       WishlistItem wi = (WishlistItem) it.next();
-      System.out.printf("%s x %d (added %s)%n",
+      context.sayf("%s x %d (added %s)%n",
           wi.getProductId(), wi.getQty(), wi.getTime());
+      context.emit("wish", wi.getProductId(), wi.getQty());
     }
   }
 
@@ -135,12 +134,46 @@ public final class ClientMenuState extends WarehouseState {
     String cid = context.getClientId();
     Warehouse.Invoice inv = context.getWarehouse().placeOrderFromWishlist(cid);
     if (inv == null) {
-      System.out.println("No order placed (wishlist empty or no stock).");
+      context.say("No order placed (wishlist empty or no stock).");
+      context.emit("none");
+      return;
+    }
+    if (context.isHeadless()) {
+      try (ReportWriter w = context.report()) { Warehouse.reportInvoice(inv, w); }
       return;
     }
-    System.out.println("Order placed:");
-    System.out.print(inv.toString()); 
-    System.out.println(); // spacing
+    context.say("Order placed:");
+    context.sayf("%s%n", inv.toString()); // blank line for spacing
+  }
+
+  /** Prints the client's open backorders numbered from 1; returns them for cancelBackorder(). */
+  private List<WaitList> showBackorders() {
+    List<WaitList> open = context.getWarehouse().getBackorders(context.getClientId());
+    if (open.isEmpty()) {
+      context.say("No open backorders.");
+      context.emit("none");
+      return open;
+    }
+    for (int i = 0; i < open.size(); i++) {
+      WaitList bo = open.get(i);
+      context.sayf("%d) %s x %d (since %tF)%n", i + 1, bo.getProductId(), bo.getQty(), bo.getCreatedAt());
+      context.emit("backorder", i + 1, bo.getProductId(), bo.getQty(), String.format("%tF", bo.getCreatedAt()));
+    }
+    return open;
+  }
+
+  private void cancelBackorder() {
+    List<WaitList> open = showBackorders();
+    if (open.isEmpty()) return;
+    int n = getNumber("Backorder number to cancel (0 to keep all)");
+    if (n <= 0 || n > open.size()) return;
+    WaitList bo = open.get(n - 1);
+    if (context.getWarehouse().cancelBackorder(context.getClientId(), bo)) {
+      context.sayf("Cancelled backorder: %s x %d%n", bo.getProductId(), bo.getQty());
+      context.emit("cancelled", bo.getProductId(), bo.getQty());
+    } else {
+      context.error("That backorder was already filled or cancelled.");
+    }
   }
 
   private void logout() {
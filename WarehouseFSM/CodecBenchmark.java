@@ -0,0 +1,114 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Compares the WarehouseCodec snapshot format against default ObjectOutputStream serialization.
+ *
+ *   java CodecBenchmark                      (10k, 1M and 10M invoices)
+ *   java -Xmx24g CodecBenchmark 10000000     (10M needs a large heap for the in-memory graph)
+ *
+ * Reports save time, retrieve time and file size for each format. Sizes that do not fit
+ * in the heap are reported as skipped.
+ */
+public class CodecBenchmark {
+  private static final int PRODUCTS = 1000;
+  private static final int INVOICES_PER_CLIENT = 10;
+
+  public static void main(String[] args) throws Exception {
+    int[] sizes = (args.length == 0) ? new int[] { 10_000, 1_000_000, 10_000_000 } : new int[args.length];
+    for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i].replace("_", ""));
+
+    Path dir = Files.createTempDirectory("codec-bench");
+    run(build(2_000), dir, false); // warm up both paths
+
+    System.out.printf("%-12s %-10s %12s %12s %15s%n", "invoices", "format", "save ms", "retrieve ms", "bytes");
+    for (int n : sizes) {
+      try {
+        run(build(n), dir, true);
+      } catch (OutOfMemoryError e) {
+        System.out.printf("%-12s skipped (graph does not fit in -Xmx%dm)%n", n, Runtime.getRuntime().maxMemory() >> 20);
+      }
+      System.gc();
+    }
+    for (File f : dir.toFile().listFiles()) f.delete();
+    Files.delete(dir);
+  }
+
+  private static void run(Warehouse w, Path dir, boolean print) throws Exception {
+    int invoices = countInvoices(w);
+    Path ser = dir.resolve("bench.ser"), bin = dir.resolve("bench.bin");
+
+    long t0 = System.nanoTime();
+    try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(ser), 1 << 16))) {
+      out.writeObject(w);
+    }
+    long t1 = System.nanoTime();
+    try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(ser), 1 << 16))) {
+      check(w, (Warehouse) in.readObject());
+    }
+    long t2 = System.nanoTime();
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(bin), 1 << 16)) {
+      WarehouseCodec.write(w, out);
+    }
+    long t3 = System.nanoTime();
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(bin), 1 << 16)) {
+      check(w, WarehouseCodec.read(in));
+    }
+    long t4 = System.nanoTime();
+
+    if (print) {
+      System.out.printf("%-12d %-10s %12.1f %12.1f %,15d%n", invoices, "java-ser", (t1 - t0) / 1e6, (t2 - t1) / 1e6, Files.size(ser));
+      System.out.printf("%-12d %-10s %12.1f %12.1f %,15d%n", invoices, "codec", (t3 - t2) / 1e6, (t4 - t3) / 1e6, Files.size(bin));
+    }
+    Files.delete(ser);
+    Files.delete(bin);
+  }
+
+  /** Detached warehouse with the requested number of invoices spread over clients. */
+  static Warehouse build(int invoices) {
+    Random rnd = new Random(42);
+    ProductCatalog products = ProductCatalog.detached();
+    for (int i = 1; i <= PRODUCTS; i++) {
+      Product p = new Product("P" + i, "Product " + i, 1 + rnd.nextInt(50000) / 100.0, rnd.nextInt(100));
+      if (i % 10 == 0) p.restoreWaitList("C" + (1 + rnd.nextInt(100)), 1 + rnd.nextInt(5), System.currentTimeMillis());
+      products.restoreProduct(p);
+    }
+    ClientList clients = ClientList.detached();
+    int nClients = Math.max(1, invoices / INVOICES_PER_CLIENT);
+    long now = System.currentTimeMillis();
+    int inv = 0;
+    for (int c = 1; c <= nClients; c++) {
+      Client client = new Client("C" + c, "Client " + c, c + " Main St");
+      int mine = (c == nClients) ? invoices - inv : INVOICES_PER_CLIENT;
+      long owed = 0;
+      for (int k = 0; k < mine; k++) {
+        Warehouse.Invoice invoice = new Warehouse.Invoice("INV" + (++inv), client.getId(), now - rnd.nextInt(1_000_000_000));
+        for (int l = 1 + rnd.nextInt(3); l > 0; l--) {
+          int pid = 1 + rnd.nextInt(PRODUCTS);
+          invoice.addLine("P" + pid, 1 + rnd.nextInt(10), products.get("P" + pid).getUnitPriceCents());
+        }
+        owed += invoice.seal().getTotalCents();
+        client.addInvoice(invoice);
+      }
+      client.restoreBalance(owed);
+      if (c % 5 == 0) client.getWishlist().addOrUpdate("P" + (1 + rnd.nextInt(PRODUCTS)), 1 + rnd.nextInt(4));
+      clients.restoreClient(client);
+    }
+    long[] marks = { nClients + 1, PRODUCTS + 1, inv + 1 };
+    return Warehouse.restored(clients, products, IdService.restored(marks), 0);
+  }
+
+  private static int countInvoices(Warehouse w) {
+    int n = 0;
+    for (Iterator<Client> it = w.getClients(); it.hasNext();) n += it.next().getInvoices().size();
+    return n;
+  }
+
+  private static void check(Warehouse expected, Warehouse actual) {
+    if (countInvoices(expected) != countInvoices(actual)
+        || expected.getProductCatalog().size() != actual.getProductCatalog().size()) {
+      throw new IllegalStateException("round trip lost data");
+    }
+  }
+}
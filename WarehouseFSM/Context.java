@@ -1,6 +1,26 @@
-import java.io.Serializable;
-import java.util.Scanner;
+import java.io.*;
 
+/**
+ * One session of the menu FSM: who is logged in, how the session began, its input and output,
+ * and its own instances of the four states. Sessions share nothing but the Warehouse, so any
+ * number of them can run at once, each on its own (virtual) thread:
+ *
+ *   new Context(warehouse, socketIn, socketOut).startVirtual("session-" + n);
+ *
+ * An interactive session prints prompts and menus to out and reads answers from in. A headless
+ * session (Context.headless) runs the same states from a command stream instead:
+ *
+ *   java Main --headless session.tsv > results.tsv
+ *
+ * Input is read as records, one per line, fields separated by tabs; each prompt takes the next
+ * field, so "1<TAB>John<TAB>123" and three one-field lines (Script.txt style) mean the same.
+ * Nothing is printed for a person (no prompts, menus or messages); instead each result is one
+ * tab-separated record on out: "client  C1  John  123  0.00", "state  ClerkMenuState",
+ * "error  No such client", listings as their report rows, and so on. Output is buffered and
+ * only flushed after a listing, before input would block, and at the end, so replaying a file
+ * runs at domain speed while a program on a pipe still sees each answer. End of input ends
+ * the session.
+ */
 public final class Context implements Serializable {
   private static final long serialVersionUID = 1L;
 
@@ -15,23 +35,29 @@ public static final int EXIT_APP   = 9;
   // Internal ids
   public enum StateId { LOGIN, CLIENT, CLERK, MANAGER }
 
-  // Singleton
-  private static volatile Context INSTANCE;
-  public static Context instance() {
-    if (INSTANCE == null) {
-      synchronized (Context.class) {
-        if (INSTANCE == null) INSTANCE = new Context();
-      }
+  // Sessions and state entries over all Contexts, see Metrics
+  private static final Metrics.Counter SESSIONS = Metrics.counter("warehouse_sessions_total", "Menu sessions started");
+  private static final java.util.concurrent.atomic.LongAdder ACTIVE = new java.util.concurrent.atomic.LongAdder();
+  private static final Metrics.Counter[] ENTERED = new Metrics.Counter[StateId.values().length];
+  static {
+    Metrics.gauge("warehouse_sessions_active", "Menu sessions running now", ACTIVE::sum);
+    for (StateId id : StateId.values()) {
+      ENTERED[id.ordinal()] = Metrics.counter("warehouse_state_entries_total", "Menu state transitions by target state", "state", id.name().toLowerCase());
     }
-    return INSTANCE;
   }
 
-  // IO + loop
-  private final Scanner in = new Scanner(System.in);
-  private transient boolean running = false;
+  // IO + loop; stop() may come from another thread
+  private final transient BufferedReader in;
+  private final transient PrintStream out;   // interactive only
+  private transient volatile boolean running = false;
+
+  // Headless mode: in is read as records of fields, results go to sink
+  private final transient ReportWriter sink;
+  private transient String[] record;
+  private transient int field;
 
-  // Domain root (adjust if your Warehouse is not a singleton)
-  private Warehouse warehouse = Warehouse.instance();
+  // Domain root, shared by all sessions
+  private final Warehouse warehouse;
 
   // Session memory required by spec
   private String clientId;                 // current client session
@@ -41,19 +67,98 @@ public static final int EXIT_APP   = 9;
   private State current;
   private StateId currentId;
 
-  private Context() {
-    try { LoginState.setContext(this); } catch (Throwable ignore) {}
-    try { ClientMenuState.setContext(this); } catch (Throwable ignore) {}
-    try { ClerkMenuState.setContext(this); } catch (Throwable ignore) {}
-    try { ManagerMenuState.setContext(this); } catch (Throwable ignore) {}
+  // This session's states; they keep nothing besides their Context
+  private final LoginState login = new LoginState(this);
+  private final ClientMenuState client = new ClientMenuState(this);
+  private final ClerkMenuState clerk = new ClerkMenuState(this);
+  private final ManagerMenuState manager = new ManagerMenuState(this);
+
+  /** Interactive session reading answers from in and printing to out. */
+  public Context(Warehouse warehouse, InputStream in, PrintStream out) {
+    this(warehouse, new BufferedReader(new InputStreamReader(in, out.charset())), out, null);
+  }
+
+  /** Headless session: command records from in, result records to out (see the class comment). */
+  public static Context headless(Warehouse warehouse, Reader in, Writer out) {
+    BufferedReader r = (in instanceof BufferedReader) ? (BufferedReader) in : new BufferedReader(in);
+    return new Context(warehouse, r, null, ReportWriter.records(out));
+  }
+
+  private Context(Warehouse warehouse, BufferedReader in, PrintStream out, ReportWriter sink) {
+    this.warehouse = warehouse;
+    this.in = in;
+    this.out = out;
+    this.sink = sink;
   }
 
 
   // ===== Loop =====
+  /** Runs the session on the calling thread until it exits or its input ends. */
   public void start() {
     running = true;
-    setState(StateId.LOGIN);
-    while (running && current != null) current.run(this);
+    SESSIONS.inc();
+    ACTIVE.increment();
+    try {
+      setState(StateId.LOGIN);
+      while (running && current != null) current.run(this);
+    } catch (EndOfInput e) {
+      running = false;
+    } finally {
+      ACTIVE.decrement();
+      if (sink != null) sink.flush();
+      else out.flush();
+    }
+  }
+
+  /** Runs the session on a new virtual thread. */
+  public Thread startVirtual(String name) {
+    return Thread.ofVirtual().name(name).start(this::start);
+  }
+
+  public boolean isHeadless() { return sink != null; }
+
+  // Thrown from a prompt when input runs out; start() ends the session
+  private static final class EndOfInput extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    EndOfInput() { super(null, null, false, false); }
+  }
+
+  private String nextField() {
+    try {
+      while (record == null || field == record.length) {
+        if (!in.ready()) sink.flush(); // about to wait for input: let a piped driver see its results
+        String line = in.readLine();
+        if (line == null) throw new EndOfInput();
+        record = line.split("\t", -1);
+        field = 0;
+      }
+      return record[field++].trim();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // ===== Output: say() is for a person, emit() for a program; only one of them prints =====
+  public void say(String text) { if (sink == null) out.println(text); }
+  public void sayf(String format, Object... args) { if (sink == null) out.printf(format, args); }
+
+  /** One result record in headless mode; nothing interactively. */
+  public void emit(String tag, Object... fields) {
+    if (sink == null) return;
+    String[] text = new String[fields.length];
+    for (int i = 0; i < fields.length; i++) text[i] = String.valueOf(fields[i]);
+    sink.record(tag, text);
+  }
+
+  /** A failed request: the message for a person, or an "error" record. */
+  public void error(String message) {
+    if (sink == null) out.println(message);
+    else sink.record("error", message);
+  }
+
+  /** Where listings go: a fresh writer on out, or the headless record stream. Close it after. */
+  public ReportWriter report() {
+    return (sink == null) ? ReportWriter.to(out) : sink.page(0, -1);
   }
 
   public void stop() { running = false; }
@@ -61,25 +166,31 @@ public static final int EXIT_APP   = 9;
   // ===== Minimal input helpers commonly used in template states =====
   public int getInt(String prompt) {
     for (;;) {
-      System.out.print(prompt + ": ");
-      String s = in.nextLine().trim();
+      String s = getLine(prompt);
       try { return Integer.parseInt(s); }
-      catch (NumberFormatException e) { System.out.println("Please enter a valid number."); }
+      catch (NumberFormatException e) { error("Please enter a valid number."); }
     }
   }
 
   public double getDouble(String prompt) {
     for (;;) {
-      System.out.print(prompt + ": ");
-      String s = in.nextLine().trim();
+      String s = getLine(prompt);
       try { return Double.parseDouble(s); }
-      catch (NumberFormatException e) { System.out.println("Please enter a valid number."); }
+      catch (NumberFormatException e) { error("Please enter a valid number."); }
     }
   }
 
   public String getLine(String prompt) {
-    System.out.print(prompt + ": ");
-    return in.nextLine().trim();
+    if (sink != null) return nextField();
+    out.print(prompt + ": ");
+    out.flush();
+    try {
+      String line = in.readLine();
+      if (line == null) throw new EndOfInput();
+      return line.trim();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
   public String getToken(String prompt) {
@@ -111,7 +222,7 @@ public void changeState(int code) {
       setState(StateId.MANAGER);
       break;
     default:
-      System.out.println("[WARN] Unknown state code: " + code);
+      error("[WARN] Unknown state code: " + code);
       break;
   }
 }
@@ -146,16 +257,17 @@ public void changeState(int code) {
       try { current.onExit(this); } catch (Exception ignore) {}
     }
     currentId = id;
+    ENTERED[id.ordinal()].inc();
 
     // Replace switch-expression with classic if/else
     if (id == StateId.LOGIN) {
-      current = LoginState.instance();
+      current = login;
     } else if (id == StateId.CLIENT) {
-      current = ClientMenuState.instance();
+      current = client;
     } else if (id == StateId.CLERK) {
-      current = ClerkMenuState.instance();
+      current = clerk;
     } else { // MANAGER
-      current = ManagerMenuState.instance();
+      current = manager;
     }
 
     try { current.onEnter(this); } catch (Exception ignore) {}
@@ -198,6 +310,9 @@ public void changeState(int code) {
   public Warehouse getWarehouse() { return warehouse; }
 
   // ===== Logging (used by WarehouseState default hooks) =====
-  public void logEnter(State s) { System.out.println("-> ENTER " + s.getName()); }
-  public void logExit(State s)  { System.out.println("<- EXIT  " + s.getName()); }
+  public void logEnter(State s) {
+    if (sink == null) out.println("-> ENTER " + s.getName());
+    else sink.record("state", s.getName());
+  }
+  public void logExit(State s)  { say("<- EXIT  " + s.getName()); }
 }
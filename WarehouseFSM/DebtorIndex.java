@@ -0,0 +1,71 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Clients with a positive balance, largest balance first (ties in client order), kept up to
+ * date by Client.debit/credit. Reports walk only the debtors they print, and the receivables
+ * total and debtor count are running sums, so none of them touch the whole client base.
+ *
+ * A client's update runs under its own monitor, so its entries never race each other; readers
+ * are lock-free and weakly consistent: while payments are being recorded a report may miss a
+ * client whose entry is being moved, and the total is exact once updates are quiescent.
+ */
+public final class DebtorIndex {
+
+  /** One debtor as of its last balance change. */
+  public static final class Debtor {
+    private final Client client;
+    private final long balanceCents;
+    private final int slot;
+    private Debtor(Client client, long balanceCents) {
+      this.client = client; this.balanceCents = balanceCents; this.slot = client.getSlot();
+    }
+    public Client getClient() { return client; }
+    public long getBalanceCents() { return balanceCents; }
+    public double getBalance() { return Money.toDollars(balanceCents); }
+  }
+
+  private static final Comparator<Debtor> LARGEST_FIRST = (a, b) -> {
+    int c = Long.compare(b.balanceCents, a.balanceCents);
+    if (c != 0) return c;
+    c = Integer.compare(a.slot, b.slot);
+    return c != 0 ? c : a.client.getId().compareTo(b.client.getId()); // slot is -1 off a ClientList
+  };
+
+  private final ConcurrentSkipListSet<Debtor> byBalance = new ConcurrentSkipListSet<>(LARGEST_FIRST);
+  private final LongAdder receivablesCents = new LongAdder();
+  private final LongAdder count = new LongAdder();
+
+  /** Records a balance change; caller holds the client's monitor. */
+  void update(Client c, long oldCents, long newCents) {
+    if (oldCents == newCents) return;
+    if (oldCents > 0) {
+      byBalance.remove(new Debtor(c, oldCents));
+      receivablesCents.add(-oldCents);
+      count.decrement();
+    }
+    if (newCents > 0) {
+      byBalance.add(new Debtor(c, newCents));
+      receivablesCents.add(newCents);
+      count.increment();
+    }
+  }
+
+  /** Debtors, largest balance first. */
+  public Iterable<Debtor> debtors() {
+    return Collections.unmodifiableSet(byBalance);
+  }
+
+  /** The n largest debtors; O(n). */
+  public List<Debtor> top(int n) {
+    List<Debtor> out = new ArrayList<>(Math.max(0, Math.min(n, 1024)));
+    for (Iterator<Debtor> it = byBalance.iterator(); out.size() < n && it.hasNext();) out.add(it.next());
+    return out;
+  }
+
+  /** Sum of all positive balances. */
+  public long getReceivablesCents() { return receivablesCents.sum(); }
+
+  public int getDebtorCount() { return count.intValue(); }
+}
@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Group commit: placing the nightly orders one client at a time (one durable journal write
+ * per order) against placeOrdersFromWishlists (one for the whole batch).
+ *
+ *   java GroupCommitBenchmark                  (5k clients, 5 lines each, 500 products)
+ *   java GroupCommitBenchmark 20000 8 2000     (clients, lines per client, products)
+ *
+ * Both runs start from identical detached warehouses, each logging to its own journal as in
+ * production. The same pair is also timed with no journal, which isolates the in-memory part
+ * of batching (locks taken once, products looked up once); nearly all of the difference is the
+ * shared fsync. After each round the results are compared (invoices, balances, stock and
+ * waitlists), so a speedup never hides a difference.
+ */
+public class GroupCommitBenchmark {
+  private static final int ROUNDS = 5;
+  private static final int WARMUP = 20; // the batch path runs once per round, so it needs many rounds to be compiled
+
+  public static void main(String[] args) throws IOException {
+    int clients = args.length > 0 ? Integer.parseInt(args[0].replace("_", "")) : 5_000;
+    int lines = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int products = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+    Path dir = Files.createTempDirectory("batch-bench");
+
+    for (int i = 0; i < WARMUP; i++) {
+      run(build(1_000, lines, products), build(1_000, lines, products), dir, true, false);
+      run(build(1_000, lines, products), build(1_000, lines, products), null, false, false);
+    }
+
+    System.out.printf("%-8s %10s %12s %12s %10s %12s %12s %10s%n", "round", "clients",
+        "single ms", "batch ms", "journaled", "single ms", "batch ms", "no journal");
+    for (int r = 1; r <= ROUNDS; r++) {
+      long[] j = run(build(clients, lines, products), build(clients, lines, products), dir, true, true);
+      long[] m = run(build(clients, lines, products), build(clients, lines, products), null, false, true);
+      System.out.printf("%-8d %10d %12.1f %12.1f %9.2fx %12.1f %12.1f %9.2fx%n", r, clients,
+          j[0] / 1e6, j[1] / 1e6, (double) j[0] / j[1], m[0] / 1e6, m[1] / 1e6, (double) m[0] / m[1]);
+    }
+    Files.delete(dir);
+  }
+
+  /** Times both paths; with journaled false neither warehouse has a journal. */
+  private static long[] run(Warehouse single, Warehouse batch, Path dir, boolean journaled, boolean check) throws IOException {
+    List<String> ids = clientIds(single);
+    Path singleLog = null, batchLog = null;
+    if (journaled) {
+      singleLog = dir.resolve("single.journal");
+      batchLog = dir.resolve("batch.journal");
+      single.journalTo(singleLog);
+      batch.journalTo(batchLog);
+    }
+
+    System.gc();
+    long t0 = System.nanoTime();
+    for (String id : ids) single.placeOrderFromWishlist(id);
+    long t1 = System.nanoTime();
+    System.gc();
+    long t2 = System.nanoTime();
+    batch.placeOrdersFromWishlists(ids);
+    long t3 = System.nanoTime();
+
+    if (journaled) {
+      single.closeJournal();
+      batch.closeJournal();
+      Files.delete(singleLog);
+      Files.delete(batchLog);
+    }
+    if (check) compare(single, batch);
+    return new long[] { t1 - t0, t3 - t2 };
+  }
+
+  /** Detached warehouse: scarce stock, so every round exercises both shipping and waitlisting. */
+  static Warehouse build(int nClients, int linesPerClient, int nProducts) {
+    Random rnd = new Random(7);
+    ProductCatalog products = ProductCatalog.detached();
+    for (int i = 1; i <= nProducts; i++) {
+      products.restoreProduct(new Product("P" + i, "Product " + i, 1 + rnd.nextInt(5000) / 100.0,
+          rnd.nextInt(nClients * linesPerClient * 2 / nProducts + 1)));
+    }
+    ClientList clients = ClientList.detached();
+    for (int c = 1; c <= nClients; c++) {
+      Client client = new Client("C" + c, "Client " + c, c + " Main St");
+      for (int l = 0; l < linesPerClient; l++) {
+        client.getWishlist().addOrUpdate("P" + (1 + rnd.nextInt(nProducts)), 1 + rnd.nextInt(5));
+      }
+      clients.restoreClient(client);
+    }
+    long[] marks = { nClients + 1, nProducts + 1, 1 };
+    return Warehouse.restored(clients, products, IdService.restored(marks), 0);
+  }
+
+  private static List<String> clientIds(Warehouse w) {
+    List<String> ids = new ArrayList<>();
+    for (Iterator<Client> it = w.getClients(); it.hasNext();) ids.add(it.next().getId());
+    return ids;
+  }
+
+  private static void compare(Warehouse a, Warehouse b) {
+    for (Iterator<Client> it = a.getClients(); it.hasNext();) {
+      Client x = it.next();
+      Client y = b.findClientById(x.getId());
+      if (x.getBalance() != y.getBalance() || !render(x.getInvoices()).equals(render(y.getInvoices()))) {
+        throw new IllegalStateException("batch differs for client " + x.getId());
+      }
+    }
+    for (Iterator<Product> it = a.getProducts(); it.hasNext();) {
+      Product p = it.next();
+      Product q = b.findProductById(p.getId());
+      if (p.getOnHandQty() != q.getOnHandQty() || !waitlist(p, a.getClientList()).equals(waitlist(q, b.getClientList()))) {
+        throw new IllegalStateException("batch differs for product " + p.getId());
+      }
+    }
+  }
+
+  private static String render(List<Warehouse.Invoice> invoices) {
+    StringBuilder sb = new StringBuilder();
+    for (Warehouse.Invoice inv : invoices) {
+      sb.append(inv.getId()).append(':');
+      for (Warehouse.InvoiceLine l : inv.getLines()) sb.append(l).append(';');
+    }
+    return sb.toString();
+  }
+
+  private static String waitlist(Product p, ClientList clients) {
+    StringBuilder sb = new StringBuilder();
+    for (WaitList w : p.liveWaitlist(clients)) sb.append(w.getClientId()).append('x').append(w.getQty()).append(';');
+    return sb.toString();
+  }
+}
@@ -0,0 +1,107 @@
+import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One id source for clients (C1..), products (P1..) and invoices (INV1..).
+ * Each id is one atomic increment of its sequence's counter, so ids are gap-free and in issue
+ * order whichever thread asks. (Sessions, HTTP requests and truckload lines each run on a
+ * short-lived virtual thread, so per-thread blocks would mostly be dropped after an id or two.)
+ * The counter (the high-water mark) is saved with the Warehouse, so ids are never reused after a
+ * retrieve(); bulk invoicing reserves a run of numbers with a single add (reserve()).
+ */
+public class IdService implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  public enum Sequence {
+    CLIENT("C"), PRODUCT("P"), INVOICE("INV");
+    private final String prefix;
+    Sequence(String prefix) { this.prefix = prefix; }
+    public String getPrefix() { return prefix; }
+  }
+
+  // Next unissued id per sequence (the persisted high-water mark)
+  private transient AtomicLong[] highWater;
+
+  private static volatile IdService service;
+
+  private IdService() { init(new long[Sequence.values().length]); }
+
+  private IdService(long[] marks) { init(marks); }
+
+  /** Instance restored from saved high-water marks (not yet the singleton). */
+  static IdService restored(long[] marks) { return new IdService(marks); }
+
+  /** Makes this (loaded) instance the process-wide singleton. */
+  void install() { service = this; }
+
+  public static IdService instance() {
+    if (service == null) {
+      synchronized (IdService.class) {
+        if (service == null) service = new IdService();
+      }
+    }
+    return service;
+  }
+
+  private void init(long[] marks) {
+    highWater = new AtomicLong[Sequence.values().length];
+    for (int i = 0; i < highWater.length; i++) {
+      highWater[i] = new AtomicLong(Math.max(1, i < marks.length ? marks[i] : 1));
+    }
+  }
+
+  /** Next id for a sequence as a number. */
+  public long nextNumber(Sequence seq) {
+    return highWater[seq.ordinal()].getAndIncrement();
+  }
+
+  /** Reserves n consecutive numbers in one atomic add (bulk invoicing); returns the first. */
+  public long reserve(Sequence seq, int n) {
+    return highWater[seq.ordinal()].getAndAdd(n);
+  }
+
+  /** Next id for a sequence with its prefix, e.g. "INV42". */
+  public String next(Sequence seq) {
+    return seq.getPrefix() + nextNumber(seq);
+  }
+
+  /** Makes sure an id that was handed out elsewhere (e.g. replayed from the journal) is never issued again. */
+  public void advancePast(Sequence seq, String id) {
+    if (id == null || !id.startsWith(seq.getPrefix())) return;
+    long n;
+    try { n = Long.parseLong(id.substring(seq.getPrefix().length())); }
+    catch (NumberFormatException e) { return; } // hand-entered id outside the sequence
+    highWater[seq.ordinal()].accumulateAndGet(n + 1, Math::max);
+  }
+
+  /** Next id not yet issued (for reports and tests). */
+  public long getHighWater(Sequence seq) {
+    return highWater[seq.ordinal()].get();
+  }
+
+  /** Detached copy of the high-water marks for a background snapshot. */
+  IdService snapshotCopy() {
+    long[] marks = new long[highWater.length];
+    for (int i = 0; i < marks.length; i++) marks[i] = highWater[i].get();
+    return new IdService(marks);
+  }
+
+  // --- Serialization: only the high-water marks are written ---
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    long[] marks = new long[highWater.length];
+    for (int i = 0; i < marks.length; i++) marks[i] = highWater[i].get();
+    out.writeObject(marks);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    init((long[]) in.readObject());
+  }
+
+  /** Keep the singleton consistent after deserialization. */
+  private Object readResolve() throws ObjectStreamException {
+    service = this;
+    return this;
+  }
+}
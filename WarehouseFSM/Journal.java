@@ -0,0 +1,461 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of Warehouse mutations.
+ *
+ * Record layout: int length | byte format<<4 | op | long seq | long time | payload | int crc32.
+ * The format travels with each record rather than in a file header, so a rotated file that
+ * holds records of an older run still replays: format 0 wrote money as a double of dollars,
+ * format 1 writes it as long cents, format 2 writes strings as an int byte count (-1 for null)
+ * followed by UTF-8 instead of writeUTF, which rejected null and anything over 64 KB.
+ * Records are encoded when they are built, before the Warehouse applies the change, so a
+ * record that cannot be written fails the operation rather than leaving it unjournaled.
+ * Appends only copy bytes into a pending buffer; one background thread writes and fsyncs
+ * whatever has accumulated (group commit), so many sessions share each fsync.
+ * A torn or corrupt tail left by a crash is detected by length/crc and truncated on open.
+ *
+ * For background snapshots the live file can be rotated to "<file>.prev": records after the
+ * rotation go to a fresh file, and the rotated one is deleted once the snapshot is durable.
+ */
+public final class Journal implements Closeable {
+
+  static final int FORMAT = 2;
+  static final int MAX_RECORD = 64 << 20; // body bytes; anything longer is treated as a torn tail
+
+  public enum Op { ADD_CLIENT, ADD_PRODUCT, ADD_TO_WISHLIST, PLACE_ORDER, RECEIVE_SHIPMENT, RECORD_PAYMENT, CANCEL_BACKORDER }
+
+  /** One journaled mutation. Field use depends on op (see encode/decode). */
+  public static final class Record {
+    public final Op op;
+    public long seq;
+    public final long time;
+    public final String a, b, c; // ids / names, by op
+    public final int qty;
+    public final long cents;     // money
+    public final String[] ids;   // invoice ids generated by the operation
+    private byte[] payload;      // encoded by the factories; decoded records are never re-appended
+
+    Record(Op op, long time, String a, String b, String c, int qty, long cents, String[] ids) {
+      this.op = op; this.time = time; this.a = a; this.b = b; this.c = c;
+      this.qty = qty; this.cents = cents; this.ids = (ids == null) ? new String[0] : ids;
+    }
+
+    /** Encodes the payload now, so a record too large for the journal is refused up front. */
+    private static Record encoded(Record r) {
+      try {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        r.encodePayload(out);
+        out.flush();
+        if (bytes.size() > MAX_RECORD - 17) throw new IllegalArgumentException("journal record too large: " + bytes.size() + " bytes");
+        r.payload = bytes.toByteArray();
+        return r;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e); // ByteArrayOutputStream does not throw
+      }
+    }
+
+    public static Record addClient(String id, String name, String address) {
+      return encoded(new Record(Op.ADD_CLIENT, System.currentTimeMillis(), id, name, address, 0, 0, null));
+    }
+    public static Record addProduct(String id, String name, long unitPriceCents, int qty) {
+      return encoded(new Record(Op.ADD_PRODUCT, System.currentTimeMillis(), id, name, null, qty, unitPriceCents, null));
+    }
+    public static Record addToWishlist(String clientId, String productId, int qty) {
+      return encoded(new Record(Op.ADD_TO_WISHLIST, System.currentTimeMillis(), clientId, productId, null, qty, 0, null));
+    }
+    public static Record placeOrder(String clientId, String invoiceId, long time) {
+      return encoded(new Record(Op.PLACE_ORDER, time, clientId, null, null, 0, 0, new String[] { invoiceId }));
+    }
+    public static Record receiveShipment(String productId, int qty, String[] invoiceIds, long time) {
+      return encoded(new Record(Op.RECEIVE_SHIPMENT, time, productId, null, null, qty, 0, invoiceIds));
+    }
+    public static Record recordPayment(String clientId, long cents) {
+      return encoded(new Record(Op.RECORD_PAYMENT, System.currentTimeMillis(), clientId, null, null, 0, cents, null));
+    }
+    /** The entry is identified by client, product, remaining qty and its createdAt (carried as time). */
+    public static Record cancelBackorder(String clientId, String productId, int qty, long createdAt) {
+      return encoded(new Record(Op.CANCEL_BACKORDER, createdAt, clientId, productId, null, qty, 0, null));
+    }
+
+    void encodePayload(DataOutputStream out) throws IOException {
+      switch (op) {
+        case ADD_CLIENT:       writeString(out, a); writeString(out, b); writeString(out, c); break;
+        case ADD_PRODUCT:      writeString(out, a); writeString(out, b); out.writeLong(cents); out.writeInt(qty); break;
+        case ADD_TO_WISHLIST:  writeString(out, a); writeString(out, b); out.writeInt(qty); break;
+        case PLACE_ORDER:      writeString(out, a); writeString(out, ids[0]); break;
+        case RECEIVE_SHIPMENT:
+          writeString(out, a); out.writeInt(qty); out.writeInt(ids.length);
+          for (String id : ids) writeString(out, id);
+          break;
+        case RECORD_PAYMENT:   writeString(out, a); out.writeLong(cents); break;
+        case CANCEL_BACKORDER: writeString(out, a); writeString(out, b); out.writeInt(qty); break;
+      }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+      if (s == null) { out.writeInt(-1); return; }
+      byte[] b = s.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(b.length);
+      out.write(b);
+    }
+
+    static Record decode(Op op, int format, long seq, long time, DataInputStream in) throws IOException {
+      StringReader str = (format < 2) ? in::readUTF : () -> readString(in);
+      Record r;
+      switch (op) {
+        case ADD_CLIENT:      r = new Record(op, time, str.read(), str.read(), str.read(), 0, 0, null); break;
+        case ADD_PRODUCT: {
+          String id = str.read(), name = str.read();
+          long price = readMoney(format, in);
+          r = new Record(op, time, id, name, null, in.readInt(), price, null);
+          break;
+        }
+        case ADD_TO_WISHLIST: r = new Record(op, time, str.read(), str.read(), null, in.readInt(), 0, null); break;
+        case PLACE_ORDER:     r = new Record(op, time, str.read(), null, null, 0, 0, new String[] { str.read() }); break;
+        case RECEIVE_SHIPMENT: {
+          String pid = str.read();
+          int qty = in.readInt();
+          String[] ids = new String[in.readInt()];
+          for (int i = 0; i < ids.length; i++) ids[i] = str.read();
+          r = new Record(op, time, pid, null, null, qty, 0, ids);
+          break;
+        }
+        case CANCEL_BACKORDER: r = new Record(op, time, str.read(), str.read(), null, in.readInt(), 0, null); break;
+        default:              r = new Record(op, time, str.read(), null, null, 0, readMoney(format, in), null); break;
+      }
+      r.seq = seq;
+      return r;
+    }
+
+    private static long readMoney(int format, DataInputStream in) throws IOException {
+      return (format == 0) ? Money.cents(in.readDouble()) : in.readLong();
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+      int n = in.readInt();
+      if (n < 0) return null;
+      byte[] b = new byte[n];
+      in.readFully(b);
+      return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private interface StringReader {
+      String read() throws IOException;
+    }
+  }
+
+  public static final String DEFAULT_FILE = "WarehouseData.journal";
+
+  private static final long FLUSH_INTERVAL_MS = 5;     // max time a record waits for its fsync
+  private static final int FLUSH_BYTES = 64 * 1024;    // flush early once this much is pending
+
+  private final Path path;
+  private final Path rotated;
+  private FileChannel channel; // replaced by rotate(); only touched while holding lock or flushing
+
+  // Appenders wait on 'durable', the flusher waits on 'work' (separate so waiters don't wake each other)
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition work = lock.newCondition();
+  private final Condition durable = lock.newCondition();
+
+  // Guarded by lock
+  private ByteArrayOutputStream pending = new ByteArrayOutputStream(FLUSH_BYTES);
+  private ByteArrayOutputStream spare = new ByteArrayOutputStream(FLUSH_BYTES);
+  private long lastSeq;      // last seq appended
+  private long pendingSeq;   // last seq in 'pending'
+  private long durableSeq;   // last seq known to be on disk
+  private long size;         // bytes in the file plus pending
+  private IOException failure;
+  private boolean closed;
+  private boolean flushing;  // a batch is being written outside the lock
+
+  private final Thread flusher;
+
+  private Journal(Path path, FileChannel channel, long lastSeq, long size) {
+    this.path = path;
+    this.rotated = rotatedPath(path);
+    this.channel = channel;
+    this.lastSeq = lastSeq;
+    this.pendingSeq = lastSeq;
+    this.durableSeq = lastSeq;
+    this.size = size;
+    this.flusher = new Thread(this::flushLoop, "warehouse-journal");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  private static Path rotatedPath(Path path) {
+    return path.resolveSibling(path.getFileName() + ".prev");
+  }
+
+  /**
+   * Opens (or creates) a journal, passes every intact record with seq > afterSeq to replay
+   * (a rotated file left by an unfinished snapshot first), truncates any torn tail,
+   * and returns the journal ready for appends.
+   */
+  public static Journal open(Path path, long afterSeq, Consumer<Record> replay) throws IOException {
+    long[] prev = scan(rotatedPath(path), afterSeq, replay);
+    long[] cur = scan(path, Math.max(afterSeq, prev[1]), replay);
+    long good = cur[0], last = Math.max(prev[1], cur[1]);
+    FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    if (good < ch.size()) {
+      System.err.println("[journal] truncating torn tail at byte " + good);
+      ch.truncate(good);
+      ch.force(true);
+    }
+    ch.position(good);
+    return new Journal(path, ch, last, good);
+  }
+
+  /** Replays one file; returns { bytes of intact records, last seq seen (at least afterSeq) }. */
+  private static long[] scan(Path path, long afterSeq, Consumer<Record> replay) throws IOException {
+    long good = 0, last = afterSeq;
+    if (Files.exists(path)) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+        CRC32 crc = new CRC32();
+        for (;;) {
+          int len;
+          try { len = in.readInt(); } catch (EOFException e) { break; }
+          if (len < 17 || len > MAX_RECORD) break;
+          byte[] body = new byte[len];
+          int storedCrc;
+          try { in.readFully(body); storedCrc = in.readInt(); } catch (EOFException e) { break; }
+          crc.reset();
+          crc.update(body);
+          if ((int) crc.getValue() != storedCrc) break;
+
+          DataInputStream rec = new DataInputStream(new ByteArrayInputStream(body));
+          int tag = rec.readUnsignedByte(), format = tag >>> 4, opCode = tag & 0x0F;
+          if (format > FORMAT || opCode >= Op.values().length) break;
+          long seq = rec.readLong();
+          long time = rec.readLong();
+          if (seq > afterSeq) replay.accept(Record.decode(Op.values()[opCode], format, seq, time, rec));
+          last = Math.max(last, seq);
+          good += 4 + len + 4;
+        }
+      }
+    }
+    return new long[] { good, last };
+  }
+
+  /** Appends a record and returns its sequence number; durability follows via awaitDurable. */
+  public long append(Record r) {
+    lock.lock();
+    try {
+      if (closed) throw new IllegalStateException("journal closed");
+      r.seq = ++lastSeq;
+      encode(r);
+      pendingSeq = r.seq;
+      if (pending.size() >= FLUSH_BYTES) work.signal();
+      return r.seq;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void encode(Record r) {
+    try {
+      ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+      DataOutputStream out = new DataOutputStream(body);
+      out.writeByte(FORMAT << 4 | r.op.ordinal());
+      out.writeLong(r.seq);
+      out.writeLong(r.time);
+      out.write(r.payload);
+      out.flush();
+
+      CRC32 crc = new CRC32();
+      crc.update(body.toByteArray(), 0, body.size());
+      DataOutputStream p = new DataOutputStream(pending);
+      p.writeInt(body.size());
+      body.writeTo(p);
+      p.writeInt((int) crc.getValue());
+      size += body.size() + 8;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // ByteArrayOutputStream does not throw
+    }
+  }
+
+  /**
+   * Blocks until the record with this seq has been fsynced (shares the fsync with other appenders).
+   * An interrupt does not cut the wait short (the caller's change is already applied, so it must
+   * not be reported before it is durable); the interrupt flag is set again on return.
+   * Throws if the write failed or the journal was closed without the record reaching disk.
+   */
+  public void awaitDurable(long seq) {
+    boolean interrupted = false;
+    lock.lock();
+    try {
+      if (durableSeq < seq) work.signal(); // don't let the flusher sleep out its interval
+      // close() drains what is pending, so keep waiting until the flusher has finished
+      while (durableSeq < seq && failure == null && !(closed && !flusher.isAlive())) {
+        try { durable.await(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS); } catch (InterruptedException e) { interrupted = true; }
+      }
+      if (failure != null) throw new UncheckedIOException("journal write failed", failure);
+      if (durableSeq < seq) throw new IllegalStateException("journal closed before record " + seq + " was durable");
+    } finally {
+      lock.unlock();
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
+
+  private void flushLoop() {
+    for (;;) {
+      ByteArrayOutputStream batch;
+      long batchSeq;
+      FileChannel ch;
+      lock.lock();
+      try {
+        while (!closed && pending.size() == 0) {
+          try { work.await(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS); } catch (InterruptedException e) { return; }
+        }
+        if (pending.size() == 0) return; // closed and drained
+        batch = pending;
+        batchSeq = pendingSeq;
+        pending = spare;
+        spare = batch;
+        flushing = true;
+        ch = channel;
+      } finally {
+        lock.unlock();
+      }
+      try {
+        ByteBuffer buf = ByteBuffer.wrap(batch.toByteArray(), 0, batch.size());
+        while (buf.hasRemaining()) ch.write(buf);
+        ch.force(false);
+      } catch (IOException e) {
+        e.printStackTrace();
+        lock.lock();
+        try {
+          failure = e;
+          flushing = false;
+          durable.signalAll();
+        } finally {
+          lock.unlock();
+        }
+        return;
+      }
+      lock.lock();
+      try {
+        flushing = false;
+        batch.reset();
+        durableSeq = Math.max(durableSeq, batchSeq);
+        durable.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  public long lastSeq() {
+    lock.lock();
+    try { return lastSeq; } finally { lock.unlock(); }
+  }
+
+  /** Bytes written or pending since the last reset or rotation (drives compaction). */
+  public long size() {
+    lock.lock();
+    try { return size; } finally { lock.unlock(); }
+  }
+
+  /**
+   * Drops every record: the caller has just written a durable snapshot covering lastSeq().
+   * Sequence numbers keep increasing across resets.
+   */
+  public void reset() throws IOException {
+    lock.lock();
+    try {
+      awaitFlushIdle();
+      pending.reset();
+      pendingSeq = lastSeq;
+      channel.truncate(0);
+      channel.position(0);
+      channel.force(true);
+      durableSeq = lastSeq;
+      size = 0;
+      durable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Starts a new journal file and returns the last seq that went into the old one.
+   * The old records stay on disk (as "<file>.prev") until dropRotated() is called,
+   * i.e. until a snapshot covering them is durable.
+   */
+  public long rotate() throws IOException {
+    lock.lock();
+    try {
+      if (failure != null) throw failure;
+      awaitFlushIdle();
+      if (pending.size() > 0) { // the old file must hold every record up to the returned seq
+        ByteBuffer buf = ByteBuffer.wrap(pending.toByteArray(), 0, pending.size());
+        while (buf.hasRemaining()) channel.write(buf);
+        pending.reset();
+      }
+      channel.force(false);
+      channel.close();
+      durableSeq = lastSeq;
+      if (Files.exists(rotated)) {
+        // An earlier snapshot never finished: keep its records ahead of ours
+        try (FileChannel prev = FileChannel.open(rotated, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+             FileChannel cur = FileChannel.open(path, StandardOpenOption.READ)) {
+          long pos = 0, n = cur.size();
+          while (pos < n) pos += cur.transferTo(pos, n - pos, prev);
+          prev.force(true);
+        }
+        Files.delete(path);
+      } else {
+        Files.move(path, rotated, StandardCopyOption.ATOMIC_MOVE);
+      }
+      channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      size = 0;
+      durable.signalAll();
+      return lastSeq;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Deletes the rotated file once a snapshot covering it has been written. */
+  public void dropRotated() throws IOException {
+    Files.deleteIfExists(rotated);
+  }
+
+  /** Caller holds lock; waits until the flusher is not writing outside it. */
+  private void awaitFlushIdle() {
+    while (flushing) {
+      try { durable.await(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); break; }
+    }
+  }
+
+  /** Flushes what is pending and stops the flusher thread. */
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      closed = true;
+      work.signal();
+    } finally {
+      lock.unlock();
+    }
+    try { flusher.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    lock.lock();
+    try {
+      channel.close();
+      durable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
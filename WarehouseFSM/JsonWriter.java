@@ -0,0 +1,107 @@
+import java.io.*;
+
+/**
+ * Streams JSON to a Writer as it is produced, so a listing is never built in memory first.
+ * Commas and colons are placed automatically; the caller only nests begin/end correctly.
+ *
+ *   json.beginObject().name("id").value(c.getId()).name("balance").money(c.getBalanceCents()).endObject();
+ *
+ * Money is written as a number with two decimals. I/O errors surface as UncheckedIOException.
+ */
+public final class JsonWriter implements Flushable, Closeable {
+  private final Writer out;
+  private boolean[] hasItems = new boolean[16]; // per open container: a comma is due before the next item
+  private int depth;
+  private boolean afterName;
+
+  public JsonWriter(Writer out) { this.out = out; }
+
+  public JsonWriter beginObject() { beforeValue(); put('{'); open(); return this; }
+  public JsonWriter endObject() { depth--; put('}'); return this; }
+  public JsonWriter beginArray() { beforeValue(); put('['); open(); return this; }
+  public JsonWriter endArray() { depth--; put(']'); return this; }
+
+  public JsonWriter name(String name) {
+    if (hasItems[depth]) put(',');
+    hasItems[depth] = true;
+    string(name);
+    put(':');
+    afterName = true;
+    return this;
+  }
+
+  public JsonWriter value(String v) {
+    beforeValue();
+    if (v == null) put("null");
+    else string(v);
+    return this;
+  }
+
+  public JsonWriter value(long v) { beforeValue(); put(Long.toString(v)); return this; }
+  public JsonWriter value(boolean v) { beforeValue(); put(v ? "true" : "false"); return this; }
+  public JsonWriter money(long cents) { beforeValue(); put(Money.format(cents)); return this; }
+
+  @Override public void flush() {
+    try {
+      out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override public void close() {
+    try {
+      out.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void beforeValue() {
+    if (afterName) { afterName = false; return; }
+    if (hasItems[depth]) put(',');
+    hasItems[depth] = true;
+  }
+
+  private void open() {
+    if (++depth == hasItems.length) hasItems = java.util.Arrays.copyOf(hasItems, depth * 2);
+    hasItems[depth] = false;
+  }
+
+  private void string(String s) {
+    put('"');
+    int from = 0, n = s.length();
+    for (int i = 0; i < n; i++) {
+      char c = s.charAt(i);
+      if (c >= 0x20 && c != '"' && c != '\\') continue;
+      put(s, from, i);
+      if (c == '"') put("\\\"");
+      else if (c == '\\') put("\\\\");
+      else if (c == '\n') put("\\n");
+      else if (c == '\t') put("\\t");
+      else put(String.format("\\u%04x", (int) c));
+      from = i + 1;
+    }
+    put(s, from, n);
+    put('"');
+  }
+
+  private void put(char c) {
+    try {
+      out.write(c);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void put(String s) { put(s, 0, s.length()); }
+
+  private void put(String s, int from, int to) {
+    if (from == to) return;
+    try {
+      out.write(s, from, to - from);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Fixed-size latency histogram in the style of HdrHistogram: values below 256 are counted
+ * exactly, larger ones in 128 linear sub-buckets per power of two, so any recorded value is
+ * reported within 1% (rounded up) whatever its magnitude. Recording is one array increment and
+ * allocates nothing; a histogram is not thread-safe, so each thread records into its own and
+ * they are merged with add() afterwards.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BITS = 7;
+  private static final int SUB = 1 << SUB_BITS;
+  static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+  private final long[] counts = new long[BUCKETS];
+  private long total;
+  private long sum;
+  private long max;
+
+  public void record(long value) {
+    if (value < 0) value = 0;
+    counts[index(value)]++;
+    total++;
+    sum += value;
+    if (value > max) max = value;
+  }
+
+  /** Adds other's counts to this histogram. */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+    total += other.total;
+    sum += other.sum;
+    max = Math.max(max, other.max);
+  }
+
+  /** Adds bucket counts recorded elsewhere (indexed as index() does), e.g. by a Metrics.Timer. */
+  void addCounts(java.util.concurrent.atomic.AtomicLongArray buckets, long sum, long max) {
+    for (int i = 0; i < counts.length; i++) {
+      long n = buckets.get(i);
+      counts[i] += n;
+      total += n;
+    }
+    this.sum += sum;
+    this.max = Math.max(this.max, max);
+  }
+
+  /** Removes an earlier snapshot of the same recorder, leaving what was recorded since; the max stays the overall max. */
+  void subtract(LatencyHistogram earlier) {
+    for (int i = 0; i < counts.length; i++) counts[i] -= earlier.counts[i];
+    total -= earlier.total;
+    sum -= earlier.sum;
+  }
+
+  public void reset() {
+    java.util.Arrays.fill(counts, 0);
+    total = sum = max = 0;
+  }
+
+  public long getCount() { return total; }
+  public long getMax() { return max; }
+  public long getSum() { return sum; }
+  public double getMean() { return total == 0 ? 0 : (double) sum / total; }
+
+  /** Smallest bucket bound at or above the given percentile (0..100) of recorded values. */
+  public long getValueAtPercentile(double percentile) {
+    if (total == 0) return 0;
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) return Math.min(highestInBucket(i), max);
+    }
+    return max;
+  }
+
+  static int index(long v) {
+    if (v < 2 * SUB) return (int) v;
+    int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+    return shift * SUB + (int) (v >>> shift);
+  }
+
+  private static long highestInBucket(int i) {
+    if (i < 2 * SUB) return i;
+    int shift = i / SUB - 1;
+    return ((long) (i - shift * SUB) << shift) + (1L << shift) - 1;
+  }
+}
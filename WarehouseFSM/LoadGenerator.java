@@ -0,0 +1,228 @@
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a Warehouse with a mix of wishlist adds, order placements, shipments and payments from
+ * several threads, and reports throughput and latency percentiles per operation.
+ *
+ *   java -Xmx8g LoadGenerator                                      (100k clients, 10k products)
+ *   java -Xmx32g LoadGenerator --clients 10000000 --products 100000 --threads 1,2,4,8
+ *   java LoadGenerator --mix wish=40,order=40,ship=10,pay=10 --rate 50000 --journal --csv
+ *
+ * Options: --clients, --products, --threads (a comma list runs one measurement per count, for
+ * scaling curves), --seconds and --warmup per measurement, --mix (relative weights), --rate
+ * (total ops/sec, 0 = as fast as possible), --journal (log to a temporary journal as in
+ * production, so durable writes are paid), --seed, --csv (one row per operation per thread count).
+ *
+ * Clients and products are created up front in a detached warehouse; products start with scarce
+ * stock so orders both ship and backorder, and shipments fill waitlists. Clients and products are
+ * picked uniformly. With --rate each thread follows a fixed schedule and latency is taken from
+ * the time an operation was due, not when it started, so a stall is charged to every operation
+ * queued behind it. Latencies are in microseconds.
+ */
+public class LoadGenerator {
+  private static final String[] OPS = { "wish", "order", "ship", "pay" };
+  private static final int WISH = 0, ORDER = 1, SHIP = 2, PAY = 3;
+
+  private final Warehouse w;
+  private final String[] clientIds;
+  private final String[] productIds;
+  private final int[] cumulativeMix = new int[OPS.length];
+  private final long seed;
+
+  private LoadGenerator(Warehouse w, int[] mix, long seed) {
+    this.w = w;
+    this.seed = seed;
+    List<String> ids = new ArrayList<>();
+    for (Iterator<Client> it = w.getClients(); it.hasNext();) ids.add(it.next().getId());
+    clientIds = ids.toArray(new String[0]);
+    ids.clear();
+    for (Iterator<Product> it = w.getProducts(); it.hasNext();) ids.add(it.next().getId());
+    productIds = ids.toArray(new String[0]);
+    int acc = 0;
+    for (int i = 0; i < mix.length; i++) cumulativeMix[i] = acc += mix[i];
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> opt = options(args);
+    int clients = intOpt(opt, "clients", 100_000);
+    int products = intOpt(opt, "products", 10_000);
+    int seconds = intOpt(opt, "seconds", 10);
+    int warmup = intOpt(opt, "warmup", 3);
+    long rate = intOpt(opt, "rate", 0);
+    long seed = intOpt(opt, "seed", 1);
+    boolean csv = opt.containsKey("csv");
+    int[] mix = mix(opt.getOrDefault("mix", "wish=50,order=20,ship=10,pay=20"));
+    String[] threadArg = opt.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())).split(",");
+
+    long t0 = System.nanoTime();
+    Warehouse w = build(clients, products, seed);
+    System.err.printf("built %d clients, %d products in %.1f s%n", clients, products, (System.nanoTime() - t0) / 1e9);
+    Path journal = null;
+    if (opt.containsKey("journal")) {
+      journal = Files.createTempFile("load", ".journal");
+      w.journalTo(journal);
+    }
+
+    LoadGenerator gen = new LoadGenerator(w, mix, seed);
+    if (csv) System.out.println("threads,op,count,ops_per_sec,mean_us,p50_us,p90_us,p99_us,p999_us,max_us");
+    try {
+      for (String t : threadArg) {
+        int threads = Integer.parseInt(t.trim());
+        gen.run(threads, warmup, rate);
+        LatencyHistogram[] result = gen.run(threads, seconds, rate);
+        gen.report(threads, seconds, result, csv);
+      }
+    } finally {
+      if (journal != null) {
+        w.closeJournal();
+        Files.deleteIfExists(journal);
+      }
+    }
+  }
+
+  /** Runs the mix on the given number of threads for the given time; returns one histogram per op. */
+  private LatencyHistogram[] run(int threads, int seconds, long rate) throws InterruptedException {
+    LatencyHistogram[][] perThread = new LatencyHistogram[threads][OPS.length];
+    Thread[] workers = new Thread[threads];
+    long start = System.nanoTime();
+    long end = start + seconds * 1_000_000_000L;
+    long interval = rate > 0 ? threads * 1_000_000_000L / rate : 0;
+    for (int t = 0; t < threads; t++) {
+      LatencyHistogram[] hs = perThread[t];
+      for (int op = 0; op < OPS.length; op++) hs[op] = new LatencyHistogram();
+      SplittableRandom rnd = new SplittableRandom(seed * 31 + t);
+      // Threads start staggered within one interval so a paced run doesn't fire in bursts
+      long first = start + (interval * t) / threads;
+      workers[t] = new Thread(() -> work(rnd, hs, first, end, interval), "load-" + t);
+      workers[t].start();
+    }
+    for (Thread t : workers) t.join();
+
+    LatencyHistogram[] merged = new LatencyHistogram[OPS.length];
+    for (int op = 0; op < OPS.length; op++) {
+      merged[op] = new LatencyHistogram();
+      for (LatencyHistogram[] hs : perThread) merged[op].add(hs[op]);
+    }
+    return merged;
+  }
+
+  private void work(SplittableRandom rnd, LatencyHistogram[] hs, long first, long end, long interval) {
+    long due = first;
+    while (true) {
+      long now = System.nanoTime();
+      if (now >= end || (interval > 0 && due >= end)) return;
+      if (interval > 0) {
+        while (now < due) {
+          LockSupport.parkNanos(due - now);
+          now = System.nanoTime();
+        }
+      } else {
+        due = now;
+      }
+      int op = pick(rnd);
+      execute(op, rnd);
+      hs[op].record(System.nanoTime() - due);
+      due += interval;
+    }
+  }
+
+  private int pick(SplittableRandom rnd) {
+    int r = rnd.nextInt(cumulativeMix[cumulativeMix.length - 1]);
+    int op = 0;
+    while (r >= cumulativeMix[op]) op++;
+    return op;
+  }
+
+  private void execute(int op, SplittableRandom rnd) {
+    switch (op) {
+      case WISH:
+        w.addToWishlist(client(rnd), product(rnd), 1 + rnd.nextInt(5));
+        break;
+      case ORDER:
+        w.placeOrderFromWishlist(client(rnd));
+        break;
+      case SHIP:
+        w.receiveShipment(product(rnd), 1 + rnd.nextInt(50));
+        break;
+      case PAY:
+        w.recordPayment(client(rnd), 1 + rnd.nextInt(20000) / 100.0);
+    }
+  }
+
+  private String client(SplittableRandom rnd) { return clientIds[rnd.nextInt(clientIds.length)]; }
+  private String product(SplittableRandom rnd) { return productIds[rnd.nextInt(productIds.length)]; }
+
+  private void report(int threads, int seconds, LatencyHistogram[] result, boolean csv) {
+    LatencyHistogram all = new LatencyHistogram();
+    for (LatencyHistogram h : result) all.add(h);
+    if (!csv) {
+      System.out.printf("%n%d threads, %d s%n", threads, seconds);
+      System.out.printf("%-6s %12s %10s %9s %9s %9s %9s %9s %10s%n",
+          "op", "count", "ops/s", "mean", "p50", "p90", "p99", "p99.9", "max");
+    }
+    for (int op = 0; op < OPS.length; op++) row(threads, OPS[op], seconds, result[op], csv);
+    row(threads, "all", seconds, all, csv);
+  }
+
+  private static void row(int threads, String op, int seconds, LatencyHistogram h, boolean csv) {
+    double opsPerSec = (double) h.getCount() / seconds;
+    if (csv) {
+      System.out.printf(Locale.ROOT, "%d,%s,%d,%.1f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f%n", threads, op, h.getCount(), opsPerSec,
+          h.getMean() / 1e3, us(h, 50), us(h, 90), us(h, 99), us(h, 99.9), h.getMax() / 1e3);
+    } else {
+      System.out.printf("%-6s %12d %10.0f %9.1f %9.1f %9.1f %9.1f %9.1f %10.1f%n", op, h.getCount(), opsPerSec,
+          h.getMean() / 1e3, us(h, 50), us(h, 90), us(h, 99), us(h, 99.9), h.getMax() / 1e3);
+    }
+  }
+
+  private static double us(LatencyHistogram h, double percentile) { return h.getValueAtPercentile(percentile) / 1e3; }
+
+  /** Detached warehouse; every client starts with two wishlist lines, every product with a little stock. */
+  static Warehouse build(int nClients, int nProducts, long seed) {
+    SplittableRandom rnd = new SplittableRandom(seed);
+    ProductCatalog products = ProductCatalog.detached();
+    for (int i = 1; i <= nProducts; i++) {
+      products.restoreProduct(new Product("P" + i, "Product " + i, 1 + rnd.nextInt(5000) / 100.0, rnd.nextInt(20)));
+    }
+    ClientList clients = ClientList.detached();
+    for (int c = 1; c <= nClients; c++) {
+      Client client = new Client("C" + c, "Client " + c, c + " Main St");
+      for (int l = 0; l < 2; l++) client.getWishlist().addOrUpdate("P" + (1 + rnd.nextInt(nProducts)), 1 + rnd.nextInt(5));
+      clients.restoreClient(client);
+    }
+    long[] marks = { nClients + 1, nProducts + 1, 1 };
+    return Warehouse.restored(clients, products, IdService.restored(marks), 0);
+  }
+
+  private static Map<String, String> options(String[] args) {
+    Map<String, String> opt = new HashMap<>();
+    for (int i = 0; i < args.length; i++) {
+      if (!args[i].startsWith("--")) throw new IllegalArgumentException("unexpected argument: " + args[i]);
+      String name = args[i].substring(2);
+      boolean flag = name.equals("journal") || name.equals("csv");
+      if (!flag && i + 1 == args.length) throw new IllegalArgumentException("--" + name + " needs a value");
+      opt.put(name, flag ? "" : args[++i]);
+    }
+    return opt;
+  }
+
+  private static int intOpt(Map<String, String> opt, String name, int def) {
+    String v = opt.get(name);
+    return v == null ? def : Integer.parseInt(v.replace("_", ""));
+  }
+
+  /** "wish=50,order=20,..." to weights in OPS order; ops left out get weight 0. */
+  private static int[] mix(String spec) {
+    int[] mix = new int[OPS.length];
+    for (String part : spec.split(",")) {
+      String[] kv = part.split("=");
+      int op = Arrays.asList(OPS).indexOf(kv[0].trim());
+      if (op < 0 || kv.length != 2) throw new IllegalArgumentException("bad mix entry: " + part);
+      mix[op] = Integer.parseInt(kv[1].trim());
+    }
+    if (Arrays.stream(mix).sum() <= 0) throw new IllegalArgumentException("mix has no weight");
+    return mix;
+  }
+}
@@ -1,33 +1,25 @@
 import java.util.*;
 
 public final class LoginState extends WarehouseState {
-  private static LoginState instance;
-  private static Context context;
+  private final Context context; // the session this state belongs to
 
-  // Singleton pattern
-  private LoginState() {}
-  public static LoginState instance() {
-    if (instance == null) instance = new LoginState();
-    return instance;
-  }
-
-  public static void setContext(Context ctx) { context = ctx; }
+  LoginState(Context context) { this.context = context; }
 
   @Override
   public void run() {
     while (true) {
-      System.out.println("\n=== Login Menu ===");
-      System.out.println("1) Client");
-      System.out.println("2) Clerk");
-      System.out.println("3) Manager");
-      System.out.println("0) Exit");
+      context.say("\n=== Login Menu ===");
+      context.say("1) Client");
+      context.say("2) Clerk");
+      context.say("3) Manager");
+      context.say("0) Exit");
       int choice = context.getInt("Choose option");
       switch (choice) {
         case 1: enterClientMode();  return;
         case 2: enterClerkMode();   return;
         case 3: enterManagerMode(); return;
         case 0: context.changeState(Context.EXIT_APP); return;
-        default: System.out.println("Invalid selection. Try again.");
+        default: context.error("Invalid selection. Try again.");
       }
     }
   }
@@ -35,7 +27,7 @@ public final class LoginState extends WarehouseState {
   private void enterClientMode() {
     String id = context.getToken("Enter Client ID");
     if (context.getWarehouse().findClientById(id) == null) {
-      System.out.println("No such client.");
+      context.error("No such client.");
       return;
     }
     context.setClientId(id);
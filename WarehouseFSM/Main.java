@@ -1,5 +1,23 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.Arrays;
+
 public class Main {
-  public static void main(String[] args) {
-    Context.instance().start();
+  /**
+   * java Main, or java Main --headless [commands-file] (stdin when no file; see Context).
+   * --fast-start first loads invoice histories on demand (Warehouse.retrieve(true)).
+   */
+  public static void main(String[] args) throws IOException {
+    boolean fastStart = args.length > 0 && args[0].equals("--fast-start");
+    if (fastStart) args = Arrays.copyOfRange(args, 1, args.length);
+    Warehouse warehouse = Warehouse.open(fastStart);
+    Context ctx;
+    if (args.length > 0 && args[0].equals("--headless")) {
+      Reader in = (args.length > 1) ? Files.newBufferedReader(Paths.get(args[1])) : new InputStreamReader(System.in);
+      ctx = Context.headless(warehouse, in, new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), System.out.charset()));
+    } else {
+      ctx = new Context(warehouse, System.in, System.out);
+    }
+    ctx.start();
   }
 }
@@ -1,8 +1,7 @@
 import java.util.*;
 
 public final class ManagerMenuState extends WarehouseState {
-  private static ManagerMenuState instance;
-  private static Context context;
+  private final Context context; // the session this state belongs to
 
   // --- Menu command constants ---
   private static final int EXIT = 0;
@@ -10,33 +9,30 @@ public final class ManagerMenuState extends WarehouseState {
   private static final int SHOW_WAITLIST = 2;
   private static final int RECEIVE_SHIPMENT = 3;
   private static final int BECOME_CLERK = 4;
+  private static final int RECEIVE_TRUCKLOAD = 5;
   private static final int HELP = 9;
 
-  private ManagerMenuState() {}
-  public static ManagerMenuState instance() {
-    if (instance == null) instance = new ManagerMenuState();
-    return instance;
-  }
-  public static void setContext(Context ctx) { context = ctx; }
+  ManagerMenuState(Context context) { this.context = context; }
 
   private String getToken(String prompt) { return context.getToken(prompt); }
   private int getNumber(String prompt)   { return context.getInt(prompt);   }
   private double getDouble(String prompt) {
     while (true) {
       try { return Double.parseDouble(getToken(prompt)); }
-      catch (NumberFormatException e) { System.out.println("Enter a number."); }
+      catch (NumberFormatException e) { context.error("Enter a number."); }
     }
   }
 
   // ---------- Menu + loop ----------
   public void help() {
-    System.out.println("\nManager commands:");
-    System.out.println(EXIT + "  Logout");
-    System.out.println(ADD_PRODUCT + "  Add product");
-    System.out.println(SHOW_WAITLIST + "  Display waitlist for a product");
-    System.out.println(RECEIVE_SHIPMENT + "  Receive a shipment");
-    System.out.println(BECOME_CLERK + "  Become a clerk");
-    System.out.println(HELP + "  Help");
+    context.say("\nManager commands:");
+    context.say(EXIT + "  Logout");
+    context.say(ADD_PRODUCT + "  Add product");
+    context.say(SHOW_WAITLIST + "  Display waitlist for a product");
+    context.say(RECEIVE_SHIPMENT + "  Receive a shipment");
+    context.say(BECOME_CLERK + "  Become a clerk");
+    context.say(RECEIVE_TRUCKLOAD + "  Receive a truckload (many products)");
+    context.say(HELP + "  Help");
   }
 
   private int getCommand() {
@@ -45,7 +41,7 @@ public final class ManagerMenuState extends WarehouseState {
         int cmd = Integer.parseInt(getToken("Enter command (9 for help)"));
         if (cmd >= 0 && cmd <= 9) return cmd;
       } catch (NumberFormatException ignore) {}
-      System.out.println("Enter a number from the menu.");
+      context.error("Enter a number from the menu.");
     }
   }
 
@@ -63,6 +59,9 @@ public final class ManagerMenuState extends WarehouseState {
         case RECEIVE_SHIPMENT:
           receiveShipment();
           break;
+        case RECEIVE_TRUCKLOAD:
+          receiveTruckload();
+          break;
         case BECOME_CLERK:
           becomeClerk();
           return; // IMPORTANT: stop Manager loop so Clerk can take over immediately
@@ -70,7 +69,7 @@ public final class ManagerMenuState extends WarehouseState {
           help();
           break;
         default:
-          System.out.println("Invalid.");
+          context.error("Invalid.");
       }
     }
     // EXIT selected -> logout to Login (per assignment)
@@ -93,24 +92,25 @@ public final class ManagerMenuState extends WarehouseState {
           ? context.getWarehouse().addProduct(name, price, qty)
           : context.getWarehouse().addProduct(id, name, price, qty);
       if (p != null) {
-        System.out.printf("Product added: %s  %-20s  price:$%.2f  qty:%d%n",
+        context.sayf("Product added: %s  %-20s  price:$%.2f  qty:%d%n",
             p.getId(), p.getName(), p.getUnitPrice(), p.getOnHandQty());
+        context.emit("product", p.getId(), p.getName(), Money.format(p.getUnitPriceCents()), p.getOnHandQty());
       } else {
-        System.out.println("Unable to add product (duplicate id?).");
+        context.error("Unable to add product (duplicate id?).");
       }
     } catch (Exception e) {
-      System.out.println("Error adding product: " + e.getMessage());
+      context.error("Error adding product: " + e.getMessage());
     }
   }
 
   private void displayWaitlistForProduct() {
     String pid = getToken("Product ID");
     if (context.getWarehouse().findProductById(pid) == null) {
-      System.out.println("No such product.");
+      context.error("No such product.");
       return;
     }
     // Use Warehouse reporter to avoid exposing internals
-    context.getWarehouse().printWaitlist(pid);
+    try (ReportWriter w = context.report()) { context.getWarehouse().reportWaitlist(pid, w); }
   }
 
   private void receiveShipment() {
@@ -119,21 +119,58 @@ public final class ManagerMenuState extends WarehouseState {
 
     try {
       List<Warehouse.Invoice> invs = context.getWarehouse().receiveShipment(pid, qty);
-      System.out.println("Shipment processed for " + pid + " (qty " + qty + ").");
+      context.say("Shipment processed for " + pid + " (qty " + qty + ").");
+      context.emit("shipment", pid, qty, (invs == null) ? 0 : invs.size());
       if (invs == null || invs.isEmpty()) {
-        System.out.println("No invoices generated; stock updated if product exists.");
+        context.say("No invoices generated; stock updated if product exists.");
+        return;
+      }
+      context.say("Generated invoices:");
+      try (ReportWriter w = context.report()) {
+        for (Warehouse.Invoice inv : invs) {
+          if (w.isRecords()) w.record("for", inv.getClientId());
+          else w.line("(Client: " + inv.getClientId() + ")");
+          Warehouse.reportInvoice(inv, w);
+        }
+      }
+    } catch (Exception e) {
+      context.error("Error receiving shipment: " + e.getMessage());
+    }
+  }
+
+  private void receiveTruckload() {
+    Map<String, Integer> manifest = new LinkedHashMap<>();
+    while (true) {
+      String pid = getToken("Product ID (blank to finish)");
+      if (pid == null || pid.isBlank()) break;
+      manifest.merge(pid, getNumber("Quantity received"), Integer::sum);
+    }
+    if (manifest.isEmpty()) return;
+
+    try {
+      Map<String, List<Warehouse.Invoice>> byClient = context.getWarehouse().receiveShipments(manifest);
+      context.say("Truckload processed (" + manifest.size() + " products).");
+      context.emit("truckload", manifest.size(), byClient.size());
+      if (byClient.isEmpty()) {
+        context.say("No invoices generated; stock updated for known products.");
         return;
       }
-      System.out.println("Generated invoices:");
-      for (Warehouse.Invoice inv : invs) {
-        System.out.printf("(Client: %s)%n", inv.getClientId());
-        System.out.print(inv.toString());
+      context.say("Generated invoices:");
+      try (ReportWriter w = context.report()) {
+        for (Map.Entry<String, List<Warehouse.Invoice>> e : byClient.entrySet()) {
+          if (!w.isRecords()) w.line("(Client: " + e.getKey() + ")");
+          for (Warehouse.Invoice inv : e.getValue()) {
+            if (w.isRecords()) w.record("for", e.getKey()); // records stand alone, so each invoice names its client
+            Warehouse.reportInvoice(inv, w);
+          }
+        }
       }
     } catch (Exception e) {
-      System.out.println("Error receiving shipment: " + e.getMessage());
+      context.error("Error receiving truckload: " + e.getMessage());
     }
   }
 
+
   private void becomeClerk() {
     // Do not modify entryRole; Context already knows we started as Manager
     context.changeState(Context.TO_CLERK);
@@ -0,0 +1,215 @@
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide metrics: counters, gauges and latency timers registered by name (and at most
+ * one label), exported as Prometheus text and summarised in a periodic log line.
+ *
+ *   static final Metrics.Timer ORDER = Metrics.timer("warehouse_operation_seconds", "...", "op", "place_order");
+ *   long t0 = System.nanoTime(); ...; ORDER.since(t0);
+ *
+ *   java ... WarehouseServer --metrics-port 9100 --metrics-log 60
+ *   curl localhost:9100/metrics
+ *
+ * Recording never takes a lock: counters are LongAdders, and a timer counts into
+ * HdrHistogram-style buckets (see LatencyHistogram) with one atomic increment. Gauges are
+ * suppliers, read only when exported. Registering a counter or timer again returns the existing
+ * one; registering a gauge (or a counter kept elsewhere) again replaces the old supplier, so a
+ * reloaded Warehouse or a new server takes over its series. Timers are exported as summaries:
+ * p50, p90 and p99 since start, with _sum and _count, in seconds.
+ */
+public final class Metrics {
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+  // Families in registration order; guarded by Metrics.class
+  private static final Map<String, Family> families = new LinkedHashMap<>();
+  private static ScheduledExecutorService logger;
+
+  private Metrics() {}
+
+  public static final class Counter {
+    private final LongAdder value = new LongAdder();
+    public void inc() { value.increment(); }
+    public void add(long n) { value.add(n); }
+    public long get() { return value.sum(); }
+  }
+
+  /** Latency recorder safe for any number of threads; values are nanoseconds. */
+  public static final class Timer {
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+      if (nanos < 0) nanos = 0;
+      counts.incrementAndGet(LatencyHistogram.index(nanos));
+      sum.add(nanos);
+      if (nanos > max.get()) max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /** Records the time since t0, a System.nanoTime() reading. */
+    public void since(long t0) { record(System.nanoTime() - t0); }
+
+    /** Everything recorded so far (not an atomic cut while others record). */
+    public LatencyHistogram snapshot() {
+      LatencyHistogram h = new LatencyHistogram();
+      h.addCounts(counts, sum.sum(), max.get());
+      return h;
+    }
+  }
+
+  private static final class Family {
+    final String name, help, type;
+    final Map<String, Object> series = new LinkedHashMap<>(); // labels ("" or op="x") -> Counter, Timer or LongSupplier
+    Family(String name, String help, String type) { this.name = name; this.help = help; this.type = type; }
+  }
+
+  // ======================= Registration =======================
+
+  public static Counter counter(String name, String help) { return counter(name, help, null, null); }
+
+  public static Counter counter(String name, String help, String label, String value) {
+    return (Counter) series(name, help, "counter", label, value, new Counter(), false);
+  }
+
+  /** A counter kept elsewhere (say a LongAdder), read when exported. */
+  public static void counter(String name, String help, LongSupplier value) {
+    series(name, help, "counter", null, null, value, true);
+  }
+
+  public static void gauge(String name, String help, LongSupplier value) {
+    series(name, help, "gauge", null, null, value, true);
+  }
+
+  public static Timer timer(String name, String help) { return timer(name, help, null, null); }
+
+  public static Timer timer(String name, String help, String label, String value) {
+    return (Timer) series(name, help, "summary", label, value, new Timer(), false);
+  }
+
+  private static synchronized Object series(String name, String help, String type, String label, String value, Object fresh, boolean replace) {
+    Family f = families.computeIfAbsent(name, n -> new Family(n, help, type));
+    if (!f.type.equals(type)) throw new IllegalArgumentException(name + " is already a " + f.type);
+    String labels = (label == null) ? "" : label + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    if (replace) {
+      f.series.put(labels, fresh);
+      return fresh;
+    }
+    return f.series.computeIfAbsent(labels, k -> fresh);
+  }
+
+  // ======================= Export =======================
+
+  /** Every metric in the Prometheus text format (version 0.0.4). */
+  public static synchronized void writePrometheus(Writer out) throws IOException {
+    StringBuilder sb = new StringBuilder(1024);
+    for (Family f : families.values()) {
+      sb.setLength(0);
+      sb.append("# HELP ").append(f.name).append(' ').append(f.help).append('\n');
+      sb.append("# TYPE ").append(f.name).append(' ').append(f.type).append('\n');
+      for (Map.Entry<String, Object> e : f.series.entrySet()) {
+        String labels = e.getKey();
+        if (e.getValue() instanceof Timer) {
+          LatencyHistogram h = ((Timer) e.getValue()).snapshot();
+          for (double q : QUANTILES) {
+            String ql = "quantile=\"" + q + "\"";
+            sample(sb, f.name, labels.isEmpty() ? ql : labels + "," + ql, seconds(h.getValueAtPercentile(q * 100)));
+          }
+          sample(sb, f.name + "_sum", labels, seconds(h.getSum()));
+          sample(sb, f.name + "_count", labels, Long.toString(h.getCount()));
+        } else {
+          sample(sb, f.name, labels, Long.toString(value(e.getValue())));
+        }
+      }
+      out.write(sb.toString());
+    }
+  }
+
+  private static void sample(StringBuilder sb, String name, String labels, String value) {
+    sb.append(name);
+    if (!labels.isEmpty()) sb.append('{').append(labels).append('}');
+    sb.append(' ').append(value).append('\n');
+  }
+
+  private static String seconds(long nanos) { return Double.toString(nanos / 1e9); }
+
+  private static long value(Object series) {
+    return (series instanceof Counter) ? ((Counter) series).get() : ((LongSupplier) series).getAsLong();
+  }
+
+  /** Serves the Prometheus text at /metrics on a small server of its own. */
+  public static HttpServer serve(int port) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.createContext("/metrics", ex -> {
+      try (ex) {
+        ex.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        ex.sendResponseHeaders(200, 0);
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8))) {
+          writePrometheus(w);
+        }
+      }
+    });
+    server.start();
+    return server;
+  }
+
+  // ======================= Log line =======================
+
+  /**
+   * Prints one line to System.out every period: for each timer used in the interval its count
+   * and interval p50/p99, each counter that moved as a rate per minute, and every gauge.
+   */
+  public static synchronized void logEvery(int seconds) {
+    if (logger != null) return;
+    logger = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "metrics-log");
+      t.setDaemon(true);
+      return t;
+    });
+    Map<String, Object> last = new HashMap<>();
+    long[] since = { System.nanoTime() };
+    logLine(last, 1); // baseline: the first line covers the first interval only
+    logger.scheduleAtFixedRate(() -> {
+      long now = System.nanoTime();
+      System.out.println(logLine(last, (now - since[0]) / 1e9));
+      since[0] = now;
+    }, seconds, seconds, TimeUnit.SECONDS);
+  }
+
+  /** One summary line; last holds each series' previous reading and is updated. */
+  static synchronized String logLine(Map<String, Object> last, double seconds) {
+    StringBuilder sb = new StringBuilder("[metrics]");
+    for (Family f : families.values()) {
+      for (Map.Entry<String, Object> e : f.series.entrySet()) {
+        String key = e.getKey().isEmpty() ? f.name : f.name + "{" + e.getKey() + "}";
+        if (e.getValue() instanceof Timer) {
+          LatencyHistogram now = ((Timer) e.getValue()).snapshot();
+          LatencyHistogram interval = new LatencyHistogram();
+          interval.add(now);
+          LatencyHistogram prev = (LatencyHistogram) last.put(key, now);
+          if (prev != null) interval.subtract(prev);
+          if (interval.getCount() == 0) continue;
+          String label = e.getKey().isEmpty() ? f.name : e.getKey().substring(e.getKey().indexOf('"') + 1, e.getKey().length() - 1);
+          sb.append(String.format(Locale.ROOT, " %s n=%d p50=%.2fms p99=%.2fms;", label, interval.getCount(),
+              interval.getValueAtPercentile(50) / 1e6, interval.getValueAtPercentile(99) / 1e6));
+        } else if (f.type.equals("counter")) {
+          long v = value(e.getValue());
+          Long prev = (Long) last.put(key, v);
+          long delta = v - (prev == null ? 0 : prev);
+          if (delta > 0) sb.append(String.format(Locale.ROOT, " %s %.0f/min;", key, delta * 60 / seconds));
+        } else {
+          sb.append(' ').append(key).append(' ').append(value(e.getValue())).append(';');
+        }
+      }
+    }
+    if (sb.charAt(sb.length() - 1) == ';') sb.setLength(sb.length() - 1);
+    return sb.toString();
+  }
+}
@@ -0,0 +1,21 @@
+/**
+ * Money is held as long cents everywhere (prices, invoice lines and totals, balances), so sums
+ * are exact however many debits and credits a balance sees. Dollars as double appear only at
+ * the edges: user input, display ("%.2f" of toDollars gives the same text as before), and the
+ * journal and snapshot formats, which store a double per amount; cents(toDollars(c)) == c.
+ */
+public final class Money {
+  private Money() {}
+
+  /** Nearest cent of a dollar amount. */
+  public static long cents(double dollars) { return Math.round(dollars * 100); }
+
+  public static double toDollars(long cents) { return cents / 100.0; }
+
+  /** "%.2f" of the amount in any locale ("-12.05"), for machine-readable output. */
+  public static String format(long cents) {
+    long m = Math.abs(cents);
+    long c = m % 100;
+    return (cents < 0 ? "-" : "") + m / 100 + (c < 10 ? ".0" : ".") + c;
+  }
+}
@@ -0,0 +1,85 @@
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * One page of a listing plus the token that resumes it.
+ *
+ * Clients, products and a client's invoices are append-only lists, so a position in one never
+ * changes. A token is the next position to read plus the end of the listing as it was when the
+ * first page was taken ("c.1k.2bi" in base 36; a client's invoice tokens also name the client):
+ * later pages read the same stable snapshot without holding locks, and rows added meanwhile
+ * are left for a new listing. Tokens are opaque to callers and can be handed to a remote client.
+ */
+public final class Page<T> {
+  private final List<T> items;
+  private final String nextToken;
+
+  private Page(List<T> items, String nextToken) {
+    this.items = Collections.unmodifiableList(items);
+    this.nextToken = nextToken;
+  }
+
+  public List<T> getItems() { return items; }
+  /** Token for the following page, or null if this was the last one. */
+  public String getNextToken() { return nextToken; }
+  public boolean hasMore() { return nextToken != null; }
+
+  /**
+   * Reads up to pageSize matching items from an append-only list.
+   *
+   * @param kind   listing tag carried in the token, so a token can't resume another listing
+   * @param token  null for the first page
+   * @param size   current length of the list (fixes the snapshot on the first page)
+   * @param at     item at a position
+   * @param filter null for all items
+   */
+  static <T> Page<T> read(char kind, String token, int pageSize, int size,
+                          IntFunction<T> at, Predicate<? super T> filter) {
+    return read(kind, null, token, pageSize, size, at, filter);
+  }
+
+  /**
+   * As above, for a listing that belongs to one owner (a client's invoices): the token also
+   * carries the owner, so it can't resume the same kind of listing for another owner.
+   */
+  static <T> Page<T> read(char kind, String owner, String token, int pageSize, int size,
+                          IntFunction<T> at, Predicate<? super T> filter) {
+    if (pageSize <= 0) throw new IllegalArgumentException("page size must be positive");
+    int pos = 0, end = size;
+    if (token != null) {
+      int[] t = decode(kind, owner, token);
+      pos = t[0];
+      end = Math.min(t[1], size);
+    }
+    List<T> items = new ArrayList<>(Math.min(pageSize, Math.max(0, end - pos)));
+    while (pos < end && items.size() < pageSize) {
+      T item = at.apply(pos++);
+      if (item != null && (filter == null || filter.test(item))) items.add(item);
+    }
+    return new Page<>(items, pos < end ? encode(kind, owner, pos, end) : null);
+  }
+
+  private static String encode(char kind, String owner, int pos, int end) {
+    String t = kind + "." + Integer.toString(pos, 36) + "." + Integer.toString(end, 36);
+    return (owner == null) ? t : t + "." + ownerTag(owner);
+  }
+
+  // Ids may contain dots, so the token carries a hash of the owner rather than the id itself
+  private static String ownerTag(String owner) {
+    return Integer.toString(owner.hashCode() & 0x7fffffff, 36);
+  }
+
+  private static int[] decode(char kind, String owner, String token) {
+    String[] parts = token.split("\\.");
+    try {
+      if (parts.length != (owner == null ? 3 : 4) || parts[0].length() != 1 || parts[0].charAt(0) != kind) throw new NumberFormatException();
+      if (owner != null && !parts[3].equals(ownerTag(owner))) throw new NumberFormatException();
+      int pos = Integer.parseInt(parts[1], 36), end = Integer.parseInt(parts[2], 36);
+      if (pos < 0 || end < pos) throw new NumberFormatException();
+      return new int[] { pos, end };
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("bad page token: " + token);
+    }
+  }
+}
@@ -1,41 +1,144 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 public class Product implements Serializable {
   private static final long serialVersionUID = 1L;
 
   private String id;          // assigned by ProductCatalog if null/blank
   private String name;
-  private double unitPrice;
-  private int onHandQty;
+  private long unitPriceCents;
+  private volatile int onHandQty; // written under the product's stripe lock, read freely by reports
 
-  // Product-side waitlist (FIFO) of WaitList entries
-  private final Deque<WaitList> waitlist = new ArrayDeque<>();
+  // Product-side waitlist (FIFO) as a primitive ring buffer; guarded by the product's stripe lock in Warehouse
+  private WaitQueue queue = new WaitQueue();
+  private transient int slot = -1; // position in its ProductCatalog
+  // Copy-on-write for background snapshots, as in Client; guarded by the product's stripe lock
+  private transient long snapshotEpoch;
+  private transient Product frozen;
 
   public Product(String id, String name, double unitPrice, int onHandQty) {
-    this.id = id; this.name = name; this.unitPrice = unitPrice; this.onHandQty = onHandQty;
+    this.id = id; this.name = name; this.unitPriceCents = Money.cents(unitPrice); this.onHandQty = onHandQty;
   }
   public Product(String name, double unitPrice, int onHandQty) {
     this(null, name, unitPrice, onHandQty);
   }
 
+  /** Loader hook: price already in cents. */
+  static Product restored(String id, String name, long unitPriceCents, int onHandQty) {
+    Product p = new Product(id, name, 0.0, onHandQty);
+    p.unitPriceCents = unitPriceCents;
+    return p;
+  }
+
   public String getId() { return id; }
   public void setId(String id) { this.id = id; }
   public String getName() { return name; }
   public void setName(String name) { this.name = name; }
-  public double getUnitPrice() { return unitPrice; }
-  public void setUnitPrice(double unitPrice) { this.unitPrice = unitPrice; }
+  public long getUnitPriceCents() { return unitPriceCents; }
+  public double getUnitPrice() { return Money.toDollars(unitPriceCents); }
+  public void setUnitPrice(double unitPrice) { this.unitPriceCents = Money.cents(unitPrice); }
   public int getOnHandQty() { return onHandQty; }
   public void setOnHandQty(int onHandQty) { this.onHandQty = onHandQty; }
 
-  public void enqueueWaitList(String clientId, int qty) {
-    if (qty > 0) waitlist.addLast(new WaitList(clientId, qty));
+  int getSlot() { return slot; }
+  void setSlot(int slot) { this.slot = slot; }
+
+  /** Queues a backorder for a client; returns the entry's sequence number, or -1 if qty <= 0. */
+  public long enqueueWaitList(Client client, int qty) {
+    return enqueueWaitList(client, qty, System.currentTimeMillis());
+  }
+  /**
+   * As above, created at the order's time: journal replay re-creates the entry with the same
+   * createdAt, which is how a journaled cancellation finds it again.
+   */
+  public long enqueueWaitList(Client client, int qty, long createdAt) {
+    if (qty <= 0) return -1;
+    return queue.add(client.getSlot(), qty, createdAt);
+  }
+  public WaitQueue getWaitQueue() { return queue; }
+
+  /** Open entries in FIFO order as views; caller holds the product's stripe lock. */
+  public List<WaitList> liveWaitlist(ClientList clients) {
+    List<WaitList> live = new ArrayList<>(queue.liveSize());
+    queue.forEach((seq, c, qty, t) -> live.add(new WaitList(clients.at(c).getId(), id, qty, t, seq)));
+    return live;
+  }
+
+  /** Loader hook: appends an entry as stored; bindWaitlist() resolves the client id later. */
+  void restoreWaitList(String clientId, int qty, long createdAt) {
+    queue.addPending(clientId, qty, createdAt);
+  }
+
+  /** Resolves loaded client ids to positions in the given list (entries for unknown clients are dropped). */
+  void bindWaitlist(ClientList clients) {
+    queue.bind(cid -> {
+      Client c = clients.get(cid);
+      return (c == null) ? -1 : c.getSlot();
+    });
+  }
+
+  /** Preserves stock and waitlist before their first change in this epoch; caller holds the product's stripe lock. */
+  void freeze(long epoch) {
+    if (epoch <= snapshotEpoch) return;
+    frozen = copy();
+    snapshotEpoch = epoch;
+  }
+
+  /** A product added after the pause of this epoch's snapshot is not part of it. */
+  void joinEpoch(long epoch) {
+    snapshotEpoch = epoch;
+  }
+
+  /** Detached copy as of the snapshot epoch; caller holds the product's stripe lock. */
+  Product snapshotCopy(long epoch) {
+    Product p = (snapshotEpoch == epoch && frozen != null) ? frozen : copy();
+    frozen = null;
+    snapshotEpoch = epoch;
+    return p;
+  }
+
+  private Product copy() {
+    Product p = restored(id, name, unitPriceCents, onHandQty);
+    p.queue = queue.snapshotCopy(); // client positions match the copied ClientList
+    return p;
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField f = in.readFields();
+    id = (String) f.get("id", null);
+    name = (String) f.get("name", null);
+    // Saved before fixed-point money: a double unitPrice
+    unitPriceCents = Warehouse.hasField(f, "unitPriceCents") ? f.get("unitPriceCents", 0L) : Money.cents(f.get("unitPrice", 0.0));
+    onHandQty = f.get("onHandQty", 0);
+    queue = (WaitQueue) f.get("queue", null);
+    slot = -1;
+    if (queue == null) {
+      // Saved before WaitQueue: the waitlist was a Deque<WaitList>
+      queue = new WaitQueue();
+      Object old = legacyWaitlist(f);
+      if (old instanceof Collection) {
+        for (Object o : (Collection<?>) old) {
+          WaitList bo = (WaitList) o;
+          restoreWaitList(bo.getClientId(), bo.getQty(), bo.getCreatedAt());
+        }
+      }
+    }
+  }
+
+  private static Object legacyWaitlist(ObjectInputStream.GetField f) throws IOException, ClassNotFoundException {
+    try {
+      return f.get("waitlist", null);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
   }
-  public Deque<WaitList> getWaitlist() { return waitlist; }
 
   @Override
   public String toString() {
-    return String.format("%s  %-20s  price:$%.2f  qty:%d", id, name, unitPrice, onHandQty);
+    return String.format("%s  %-20s  price:$%.2f  qty:%d", id, name, getUnitPrice(), onHandQty);
   }
 }
@@ -1,14 +1,15 @@
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.*;
 
 public class ProductCatalog implements Serializable {
   private static final long serialVersionUID = 1L;
 
-  // Keep insertion order stable for listing in the UI
-  private final List<Product> products = new LinkedList<>();
-
-  // Simple ID counter (P1, P2, ...)
-  private int nextId = 1;
+  // Concurrent id index for lock-free O(1) lookups from any session
+  private transient ConcurrentHashMap<String, Product> index = new ConcurrentHashMap<>();
+  // Append-only array keeps insertion order stable for listing in the UI; readers see [0, count)
+  private transient volatile Product[] ordered = new Product[16];
+  private transient volatile int count;
 
   // Singleton
   private static ProductCatalog productCatalog;
@@ -22,44 +23,100 @@ public class ProductCatalog implements Serializable {
     return productCatalog;
   }
 
-  /** Inserts a product; assigns an id if missing. Returns true if added. */
-  public boolean insertProduct(Product product) {
+  /** Inserts a product; assigns an id if missing. Returns false on a duplicate id. */
+  public synchronized boolean insertProduct(Product product) {
     if (product == null) return false;
     if (product.getId() == null || product.getId().isBlank()) {
-      product.setId("P" + (nextId++));
+      product.setId(nextFreeId());
     }
-    products.add(product);
+    if (index.putIfAbsent(product.getId(), product) != null) return false;
+    append(product);
     return true;
   }
 
-  /** Iterator used by Warehouse.getProducts() */
-  public Iterator getProducts() {
-    return products.iterator(); 
+  /** Next generated id (P1, P2, ...) that is not already taken by a hand-entered id. */
+  public String nextFreeId() {
+    String id;
+    do { id = IdService.instance().next(IdService.Sequence.PRODUCT); } while (index.containsKey(id));
+    return id;
+  }
+
+  /** Empty list that is not (yet) the singleton; filled by loaders via restoreProduct. */
+  static ProductCatalog detached() {
+    return new ProductCatalog();
+  }
+
+  /** Loader insert: keeps the id as stored and skips duplicates. */
+  void restoreProduct(Product product) {
+    if (index.putIfAbsent(product.getId(), product) == null) append(product);
+  }
+
+  /** Makes this (loaded) instance the process-wide singleton. */
+  void install() {
+    productCatalog = this;
+  }
+
+  private void append(Product product) {
+    if (count == ordered.length) ordered = Arrays.copyOf(ordered, count * 2);
+    product.setSlot(count);
+    ordered[count] = product;
+    count = count + 1; // volatile write publishes the slot to readers
+  }
+
+  /** Iterator used by Warehouse.getProducts(). Never throws ConcurrentModificationException. */
+  public Iterator<Product> getProducts() {
+    final int n = count;           // read count first, then the array it indexes
+    final Product[] snap = ordered;
+    return new Iterator<Product>() {
+      private int i = 0;
+      public boolean hasNext() { return i < n; }
+      public Product next() {
+        if (i >= n) throw new NoSuchElementException();
+        return snap[i++];
+      }
+    };
   }
 
   /** Helper for lookups */
   public Product get(String productId) {
     if (productId == null) return null;
-    for (Product p : products) {
-      if (productId.equals(p.getId())) return p;
-    }
-    return null;
+    return index.get(productId);
   }
 
-  public int size() { return products.size(); }
+  public int size() { return count; }
+
+  /** Product at a position (its slot), or null; positions never change once assigned. */
+  Product at(int slot) {
+    int n = count;                // read count first, then the array it indexes
+    Product[] snap = ordered;
+    return (slot >= 0 && slot < n) ? snap[slot] : null;
+  }
 
   @Override
   public String toString() {
-    return products.toString();
+    return Arrays.asList(ordered).subList(0, count).toString();
   }
 
   // Serialization helpers to keep the singleton consistent after load 
-  private void writeObject(ObjectOutputStream out) throws IOException {
+  private synchronized void writeObject(ObjectOutputStream out) throws IOException {
     out.defaultWriteObject();
+    out.writeInt(count);
+    for (int i = 0; i < count; i++) out.writeObject(ordered[i]);
   }
 
   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
-    in.defaultReadObject();
+    ObjectInputStream.GetField f = in.readFields();
+    // Saved before the id index: the products were a List field rather than a count plus entries
+    List<?> legacy = Warehouse.hasField(f, "products") ? (List<?>) f.get("products", null) : null;
+    int n = (legacy != null) ? legacy.size() : in.readInt();
+    // Rebuild the index from the loaded products so it always matches Product.getId()
+    index = new ConcurrentHashMap<>(Math.max(16, n * 4 / 3 + 1));
+    ordered = new Product[Math.max(16, n)];
+    count = 0;
+    for (int i = 0; i < n; i++) {
+      Product p = (Product) ((legacy != null) ? legacy.get(i) : in.readObject());
+      if (index.putIfAbsent(p.getId(), p) == null) append(p);
+    }
   }
 
   /** Ensure the deserialized instance also becomes the process-wide singleton. */
@@ -0,0 +1,66 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Save, mutate, replay round trip in a temporary data directory (never the working directory).
+ *
+ *   java ReplayCheck
+ *
+ * After a save() two clients are backordered on one product and the first one cancels; the
+ * warehouse is then retrieved again, which replays the journal over the snapshot. The cancelled
+ * entry must stay cancelled and the next shipment must bill only the client still waiting.
+ * The same is checked once more after the replayed state is saved and retrieved.
+ */
+public class ReplayCheck {
+  public static void main(String[] args) throws IOException {
+    Path dir = Files.createTempDirectory("warehouse-replay");
+    Warehouse.setDataDirectory(dir);
+    try {
+      Warehouse w = Warehouse.instance();
+      String ann = w.addClient("Ann", "1 Main St").getId();
+      String bob = w.addClient("Bob", "2 Elm St").getId();
+      String pid = w.addProduct("Widget", 2.00, 0).getId();
+      if (!Warehouse.save()) throw new IllegalStateException("save failed");
+
+      for (String cid : new String[] { ann, bob }) {
+        w.addToWishlist(cid, pid, 3);
+        w.placeOrderFromWishlist(cid); // no stock: all 3 backordered
+      }
+      if (!w.cancelBackorder(ann, w.getBackorders(ann).get(0))) throw new IllegalStateException("cancel failed");
+
+      Warehouse replayed = Warehouse.retrieve();
+      check(replayed, ann, bob, "after replay");
+      if (!Warehouse.save()) throw new IllegalStateException("second save failed");
+      check(Warehouse.retrieve(), ann, bob, "after a snapshot of the replayed state");
+
+      Warehouse last = Warehouse.instance();
+      last.receiveShipment(pid, 3);
+      expect(last.findClientById(ann).getBalanceCents() == 0, "cancelled backorder was filled and billed");
+      expect(last.findClientById(bob).getBalanceCents() == 600, "waiting client was not billed for 3 x $2.00");
+      last.closeJournal();
+      System.out.println("replay check passed");
+    } finally {
+      Warehouse.instance().closeJournal();
+      deleteTree(dir);
+    }
+  }
+
+  private static void check(Warehouse w, String ann, String bob, String when) {
+    expect(w != null, "retrieve failed " + when);
+    expect(w.getBackorders(ann).isEmpty(), "cancelled backorder came back " + when + ": " + w.getBackorders(ann));
+    List<WaitList> open = w.getBackorders(bob);
+    expect(open.size() == 1 && open.get(0).getQty() == 3, "open backorder lost " + when + ": " + open);
+  }
+
+  private static void expect(boolean ok, String message) {
+    if (!ok) throw new IllegalStateException(message);
+  }
+
+  private static void deleteTree(Path dir) throws IOException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+    }
+  }
+}
@@ -0,0 +1,348 @@
+import java.io.*;
+import java.nio.charset.Charset;
+import java.text.DecimalFormatSymbols;
+import java.time.*;
+import java.util.*;
+
+/**
+ * Streams report rows to a Writer through one large buffer. Rows are laid out by a Format
+ * compiled once from a printf-style pattern, then filled field by field with no per-row
+ * parsing, boxing or String.format; the text matches what printf would print.
+ *
+ *   try (ReportWriter w = ReportWriter.toStdout().page(100, 50)) {
+ *     w.row(CLIENT_ROW).s(c.getId()).s(c.getName()).money(c.getBalanceCents()).end();
+ *   }
+ *
+ * Paging: rows before the offset and after offset + limit are counted but not formatted, and
+ * isDone() turns true once the page is full or cancel() was called (from any thread), so
+ * report loops can stop early. Random-access reports may skip() straight to the offset.
+ * I/O errors surface as UncheckedIOException.
+ *
+ * A records() writer prints the same rows for programs instead: the format's record name, then
+ * each field after a tab, no padding, '.' as the decimal point and '\n' line ends.
+ */
+public final class ReportWriter implements Flushable, Closeable {
+  private static final int BUFFER_CHARS = 64 * 1024;
+  private static final int RECORDS_BUFFER_CHARS = 8 * 1024; // one per headless session, and there may be thousands
+  private static final String NL = System.lineSeparator();
+
+  /**
+   * A compiled row pattern. Supports literals, %n, %%, %s and %d (optional '-' and width),
+   * %.2f (money, given as cents) and %tF (date, given as epoch millis).
+   */
+  public static final class Format {
+    static final byte STR = 0, INT = 1, MONEY = 2, DATE = 3;
+    private final String record;     // first field of the row in records mode
+    private final String[] literals; // literals[i] precedes field i; the last one ends the row
+    private final byte[] kinds;
+    private final int[] widths;
+    private final boolean[] left;
+
+    private Format(String record, List<String> literals, List<int[]> fields) {
+      this.record = record;
+      this.literals = literals.toArray(new String[0]);
+      int n = fields.size();
+      kinds = new byte[n];
+      widths = new int[n];
+      left = new boolean[n];
+      for (int i = 0; i < n; i++) {
+        kinds[i] = (byte) fields.get(i)[0];
+        widths[i] = fields.get(i)[1];
+        left[i] = fields.get(i)[2] != 0;
+      }
+    }
+
+    public static Format compile(String pattern) { return compile("row", pattern); }
+
+    /** record names the row in records mode, e.g. "client". */
+    public static Format compile(String record, String pattern) {
+      List<String> literals = new ArrayList<>();
+      List<int[]> fields = new ArrayList<>();
+      StringBuilder lit = new StringBuilder();
+      for (int i = 0; i < pattern.length(); i++) {
+        char ch = pattern.charAt(i);
+        if (ch != '%') { lit.append(ch); continue; }
+        int j = i + 1;
+        boolean minus = j < pattern.length() && pattern.charAt(j) == '-';
+        if (minus) j++;
+        int width = 0;
+        while (j < pattern.length() && Character.isDigit(pattern.charAt(j))) width = width * 10 + (pattern.charAt(j++) - '0');
+        if (pattern.startsWith(".2f", j)) { fields.add(new int[] { MONEY, width, minus ? 1 : 0 }); j += 2; }
+        else if (pattern.startsWith("tF", j)) { fields.add(new int[] { DATE, width, minus ? 1 : 0 }); j += 1; }
+        else if (j < pattern.length() && pattern.charAt(j) == 's') fields.add(new int[] { STR, width, minus ? 1 : 0 });
+        else if (j < pattern.length() && pattern.charAt(j) == 'd') fields.add(new int[] { INT, width, minus ? 1 : 0 });
+        else if (j < pattern.length() && pattern.charAt(j) == 'n') { lit.append(NL); i = j; continue; }
+        else if (j < pattern.length() && pattern.charAt(j) == '%') { lit.append('%'); i = j; continue; }
+        else throw new IllegalArgumentException("unsupported conversion at " + i + " in \"" + pattern + "\"");
+        literals.add(lit.toString());
+        lit.setLength(0);
+        i = j;
+      }
+      literals.add(lit.toString());
+      return new Format(record, literals, fields);
+    }
+  }
+
+  /** Cursor over the current row; fields must be given in pattern order, then end(). */
+  public final class Row {
+    private Format f;
+    private int next;
+    private boolean visible;
+
+    private Row open(Format f, boolean visible) {
+      this.f = f;
+      this.next = 0;
+      this.visible = visible;
+      if (visible && records) put(f.record);
+      return this;
+    }
+
+    public Row s(String v) {
+      if (!visible) return this;
+      field(Format.STR);
+      String text = (v == null) ? "null" : records ? clean(v) : v;
+      pad(text.length());
+      put(text);
+      trail(text.length());
+      return this;
+    }
+
+    public Row d(long v) {
+      if (visible) { field(Format.INT); number(digits(v, false)); }
+      return this;
+    }
+
+    public Row money(long cents) {
+      if (visible) { field(Format.MONEY); number(digits(cents, true)); }
+      return this;
+    }
+
+    public Row date(long millis) {
+      if (visible) { field(Format.DATE); number(day(millis)); }
+      return this;
+    }
+
+    public void end() {
+      if (!visible) return;
+      if (next != f.kinds.length) throw new IllegalStateException("row ended after " + next + " of " + f.kinds.length + " fields");
+      if (records) put('\n');
+      else put(f.literals[next]);
+    }
+
+    private void field(byte kind) {
+      if (next >= f.kinds.length || f.kinds[next] != kind) throw new IllegalArgumentException("field " + next + " does not match the format");
+      if (records) { put('\t'); next++; }
+      else put(f.literals[next++]);
+    }
+
+    // Numbers are built right-aligned at the end of scratch: the last len chars
+    private void number(int len) {
+      pad(len);
+      put(scratch, scratch.length - len, len);
+      trail(len);
+    }
+
+    private void pad(int len) {
+      if (!records && !f.left[next - 1]) for (int k = f.widths[next - 1] - len; k > 0; k--) put(' ');
+    }
+
+    private void trail(int len) {
+      if (!records && f.left[next - 1]) for (int k = f.widths[next - 1] - len; k > 0; k--) put(' ');
+    }
+  }
+
+  private final Writer out;
+  private final boolean closeOut;
+  private final boolean records;
+  private final char[] buf;
+  private int pos;
+  private final Row row = new Row();
+  private final char[] scratch = new char[24];
+  private final char decimal;
+  private final ZoneId zone = ZoneId.systemDefault();
+  private long dayStart = 1, dayEnd = 0; // last %tF day, as [start, end) millis
+  private final char[] dayText = new char[10];
+
+  private long offset;
+  private long end = Long.MAX_VALUE; // offset + limit
+  private long rows;                 // rows begun or skipped so far
+  private long written;
+  private boolean lastVisible = true;
+  private volatile boolean cancelled;
+
+  public ReportWriter(Writer out) { this(out, true); }
+  public ReportWriter(OutputStream out, Charset cs) { this(new OutputStreamWriter(out, cs), true); }
+
+  private ReportWriter(Writer out, boolean closeOut) { this(out, closeOut, false); }
+
+  private ReportWriter(Writer out, boolean closeOut, boolean records) {
+    this.out = out;
+    this.closeOut = closeOut;
+    this.records = records;
+    this.buf = new char[records ? RECORDS_BUFFER_CHARS : BUFFER_CHARS];
+    this.decimal = records ? '.' : DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT)).getDecimalSeparator();
+  }
+
+  /** Writer on System.out; close() flushes it but leaves System.out open. */
+  public static ReportWriter toStdout() { return to(System.out); }
+
+  /** Writer on a print stream (a session's output); close() flushes but leaves it open. */
+  public static ReportWriter to(PrintStream out) {
+    return new ReportWriter(new OutputStreamWriter(out, out.charset()), false);
+  }
+
+  /** Records-mode writer on out; close() flushes it but leaves out open. */
+  public static ReportWriter records(Writer out) {
+    return new ReportWriter(out, false, true);
+  }
+
+  public boolean isRecords() { return records; }
+
+  /** Only rows [offset, offset + limit) are written; limit < 0 means no limit. */
+  public ReportWriter page(long offset, long limit) {
+    this.offset = Math.max(0, offset);
+    this.end = (limit < 0 || this.offset + limit < 0) ? Long.MAX_VALUE : this.offset + limit;
+    return this;
+  }
+
+  public long getOffset() { return offset; }
+
+  /** Stops the report at the next row; safe to call from another thread. */
+  public void cancel() { cancelled = true; }
+  public boolean isCancelled() { return cancelled; }
+
+  /** True once the page is full or the report was cancelled; loops should stop. */
+  public boolean isDone() { return cancelled || rows >= end; }
+
+  /** Rows written so far (not counting skipped ones or plain lines). */
+  public long getRowsWritten() { return written; }
+
+  /** Counts n rows as passed over without producing them (random-access paging). */
+  public void skip(long n) { rows += n; }
+
+  /** Begins a row; the fields are ignored when the row falls outside the page. */
+  public Row row(Format f) {
+    lastVisible = !cancelled && rows >= offset && rows < end;
+    rows++;
+    if (lastVisible) written++;
+    return row.open(f, lastVisible);
+  }
+
+  /** More output belonging to the last row (e.g. invoice lines); shown if that row was. */
+  public Row more(Format f) {
+    return row.open(f, lastVisible);
+  }
+
+  /** Writes a line that is not a row (headings, messages); always shown. A "note" record in records mode. */
+  public void line(String s) {
+    if (records) { record("note", s); return; }
+    put(s);
+    put(NL);
+  }
+
+  /** Writes one record outside any report: tag, then each field after a tab, then '\n'. */
+  public void record(String tag, String... fields) {
+    put(tag);
+    for (String f : fields) {
+      put('\t');
+      put(f == null ? "null" : clean(f));
+    }
+    put('\n');
+  }
+
+  // Tabs and line breaks would split a record
+  private static String clean(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '\t' || c == '\n' || c == '\r') return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+    return s;
+  }
+
+  @Override public void flush() {
+    try {
+      drain();
+      out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override public void close() {
+    flush();
+    if (!closeOut) return;
+    try {
+      out.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // ----- buffer -----
+
+  private void put(char c) {
+    if (pos == buf.length) drainUnchecked();
+    buf[pos++] = c;
+  }
+
+  private void put(String s) {
+    int n = s.length();
+    for (int i = 0; i < n;) {
+      if (pos == buf.length) drainUnchecked();
+      int k = Math.min(n - i, buf.length - pos);
+      s.getChars(i, i + k, buf, pos);
+      pos += k;
+      i += k;
+    }
+  }
+
+  private void put(char[] src, int from, int len) {
+    if (buf.length - pos < len) drainUnchecked();
+    System.arraycopy(src, from, buf, pos, len);
+    pos += len;
+  }
+
+  private void drain() throws IOException {
+    out.write(buf, 0, pos);
+    pos = 0;
+  }
+
+  private void drainUnchecked() {
+    try {
+      drain();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // ----- field text, built at the end of scratch -----
+
+  /** %d, or %.2f of cents / 100; returns the length. */
+  private int digits(long v, boolean cents) {
+    int p = scratch.length;
+    boolean neg = v < 0;
+    long m = neg ? -v : v; // Long.MIN_VALUE is not a balance
+    if (cents) {
+      scratch[--p] = (char) ('0' + m % 10);
+      scratch[--p] = (char) ('0' + m / 10 % 10);
+      scratch[--p] = decimal;
+      m /= 100;
+    }
+    do { scratch[--p] = (char) ('0' + m % 10); m /= 10; } while (m > 0);
+    if (neg) scratch[--p] = '-';
+    return scratch.length - p;
+  }
+
+  /** %tF (yyyy-MM-dd, default zone); the day is cached since rows usually share it. */
+  private int day(long millis) {
+    if (millis < dayStart || millis >= dayEnd) {
+      LocalDate d = Instant.ofEpochMilli(millis).atZone(zone).toLocalDate();
+      dayStart = d.atStartOfDay(zone).toInstant().toEpochMilli();
+      dayEnd = d.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+      String s = d.toString(); // ISO yyyy-MM-dd for years 0000-9999
+      s.getChars(0, 10, dayText, 0);
+    }
+    System.arraycopy(dayText, 0, scratch, scratch.length - 10, 10);
+    return 10;
+  }
+}
@@ -0,0 +1,70 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Many independent headless sessions against one warehouse, each on its own virtual thread.
+ *
+ *   java SessionBenchmark                  (1, 100 and 10k concurrent sessions, 20 wishes each)
+ *   java -Xmx4g SessionBenchmark 50000 50  (sessions, wishlist adds per session)
+ *
+ * Every session logs in as its own client, adds wishlist items, places an order and exits. The
+ * same sessions are also run one after another on one thread, and after each run every
+ * client's invoices are checked, so concurrency can't hide a lost or doubled order.
+ */
+public class SessionBenchmark {
+  private static final int PRODUCTS = 1000;
+
+  public static void main(String[] args) throws Exception {
+    int[] sessions = args.length > 0 ? new int[] { Integer.parseInt(args[0].replace("_", "")) } : new int[] { 1, 100, 10_000 };
+    int wishes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+    run(2_000, wishes, true);
+    run(2_000, wishes, false); // warm up both paths
+
+    System.out.printf("%-10s %-10s %12s %14s%n", "sessions", "threads", "ms", "commands/s");
+    for (int n : sessions) {
+      for (boolean virtual : new boolean[] { false, true }) {
+        long ns = run(n, wishes, virtual);
+        long commands = (long) n * (wishes + 4); // login, wishes, order, logout, exit
+        System.out.printf("%-10d %-10s %12.1f %,14.0f%n", n, virtual ? "virtual" : "one", ns / 1e6, commands / (ns / 1e9));
+      }
+    }
+  }
+
+  private static long run(int n, int wishes, boolean virtual) throws InterruptedException {
+    Warehouse w = LoadGenerator.build(n, PRODUCTS, 1);
+    for (Iterator<Client> it = w.getClients(); it.hasNext();) it.next().getWishlist().clear();
+    for (Iterator<Product> it = w.getProducts(); it.hasNext();) it.next().setOnHandQty(Integer.MAX_VALUE / 2);
+    String[] scripts = new String[n];
+    for (int i = 0; i < n; i++) scripts[i] = script("C" + (i + 1), wishes, i);
+
+    long t0 = System.nanoTime();
+    if (virtual) {
+      Thread[] threads = new Thread[n];
+      for (int i = 0; i < n; i++) threads[i] = session(w, scripts[i]).startVirtual("session-" + i);
+      for (Thread t : threads) t.join();
+    } else {
+      for (int i = 0; i < n; i++) session(w, scripts[i]).start();
+    }
+    long elapsed = System.nanoTime() - t0;
+
+    for (int i = 1; i <= n; i++) {
+      List<Warehouse.Invoice> invoices = w.findClientById("C" + i).getInvoices();
+      if (invoices.size() != 1 || invoices.get(0).getLines().size() != Math.min(wishes, PRODUCTS)) {
+        throw new IllegalStateException("session for C" + i + " left " + invoices);
+      }
+    }
+    return elapsed;
+  }
+
+  private static Context session(Warehouse w, String script) {
+    return Context.headless(w, new StringReader(script), Writer.nullWriter());
+  }
+
+  /** Client login, wishes for distinct products, order, logout, exit. */
+  private static String script(String clientId, int wishes, int seed) {
+    StringBuilder sb = new StringBuilder("1\t").append(clientId).append('\n');
+    for (int k = 0; k < wishes; k++) sb.append("4\tP").append(1 + (seed + k) % PRODUCTS).append("\t1\n");
+    return sb.append("6\n0\n0\n").toString();
+  }
+}
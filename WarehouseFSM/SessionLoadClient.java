@@ -0,0 +1,154 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stand-in for many terminals: opens N connections to a WarehouseServer, all at once, then each
+ * runs a client session (log in, add wishlist items, place an order, exit) and reads the replies
+ * until the server hangs up.
+ *
+ *   java SessionLoadClient                                       (local server, 2000 connections)
+ *   java SessionLoadClient --connections 5000 --wishes 10 --headless
+ *   java SessionLoadClient --connections 3000 --max-connections 2000    (exercise refusals)
+ *   java SessionLoadClient --host shop --port 7070 --connections 1000   (C1..C1000 must exist)
+ *
+ * Without --port it starts a WarehouseServer in this JVM on a free port (--headless,
+ * --max-connections and --idle-seconds configure it) over a warehouse with one client per
+ * connection and ample stock, and afterwards checks that every session's order was invoiced
+ * exactly once. Every connection is open before any session starts, so the server really holds
+ * them concurrently. The script sends one value per line, so it suits interactive and headless
+ * servers alike. Reports refusals, failures, total time and session latency percentiles (ms).
+ */
+public class SessionLoadClient {
+  private static final int PRODUCTS = 1000;
+  private static final String BUSY = "Server busy", HEADLESS_BUSY = "error\tserver busy";
+
+  private final InetSocketAddress address;
+  private final int wishes;
+  private final CountDownLatch connected;
+  private final CountDownLatch go = new CountDownLatch(1);
+  private final LatencyHistogram latency = new LatencyHistogram(); // shared: one record per session
+  private final LongAdder refused = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder received = new LongAdder();
+
+  private SessionLoadClient(InetSocketAddress address, int connections, int wishes) {
+    this.address = address;
+    this.wishes = wishes;
+    this.connected = new CountDownLatch(connections);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int connections = 2000, wishes = 5, port = -1, max = -1, idle = 60;
+    String host = "localhost";
+    boolean headless = false;
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--connections": connections = Integer.parseInt(args[++i].replace("_", "")); break;
+        case "--wishes": wishes = Integer.parseInt(args[++i]); break;
+        case "--host": host = args[++i]; break;
+        case "--port": port = Integer.parseInt(args[++i]); break;
+        case "--max-connections": max = Integer.parseInt(args[++i].replace("_", "")); break;
+        case "--idle-seconds": idle = Integer.parseInt(args[++i]); break;
+        case "--headless": headless = true; break;
+        default: throw new IllegalArgumentException("unexpected argument: " + args[i]);
+      }
+    }
+
+    Warehouse w = null;
+    WarehouseServer server = null;
+    if (port < 0) {
+      w = LoadGenerator.build(connections, PRODUCTS, 1);
+      for (Iterator<Client> it = w.getClients(); it.hasNext();) it.next().getWishlist().clear();
+      for (Iterator<Product> it = w.getProducts(); it.hasNext();) it.next().setOnHandQty(Integer.MAX_VALUE / 2);
+      server = new WarehouseServer(w, 0, max < 0 ? connections : max, idle, headless).start();
+      port = server.getPort();
+    }
+
+    SessionLoadClient load = new SessionLoadClient(new InetSocketAddress(host, port), connections, wishes);
+    Thread[] threads = new Thread[connections];
+    for (int i = 0; i < connections; i++) {
+      String clientId = "C" + (i + 1);
+      threads[i] = Thread.ofVirtual().name("terminal-" + i).start(() -> load.terminal(clientId));
+    }
+    load.connected.await();
+    System.out.printf("%d connections opened%s%n", connections, server == null ? "" : " (server: " + server + ")");
+
+    long t0 = System.nanoTime();
+    load.go.countDown();
+    for (Thread t : threads) t.join();
+    long elapsed = System.nanoTime() - t0;
+
+    LatencyHistogram h = load.latency;
+    System.out.printf("%-10s %8s %8s %10s %10s %12s %9s %9s %9s %9s%n",
+        "sessions", "refused", "failed", "completed", "seconds", "sessions/s", "p50", "p90", "p99", "max");
+    System.out.printf("%-10d %8d %8d %10d %10.2f %12.0f %9.1f %9.1f %9.1f %9.1f%n", connections, load.refused.sum(),
+        load.failed.sum(), h.getCount(), elapsed / 1e9, h.getCount() / (elapsed / 1e9),
+        h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(90) / 1e6, h.getValueAtPercentile(99) / 1e6, h.getMax() / 1e6);
+    System.out.printf("%,d bytes received%n", load.received.sum());
+
+    if (server != null) {
+      server.close();
+      System.out.println("server: " + server);
+      check(w, connections);
+    }
+  }
+
+  /** One connection: connect, wait for the others, run the session, read until the server closes. */
+  private void terminal(String clientId) {
+    Socket s = new Socket();
+    try (s) {
+      try {
+        s.connect(address, 30_000);
+        s.setSoTimeout(120_000);
+      } finally {
+        connected.countDown();
+      }
+      go.await();
+      long t0 = System.nanoTime();
+      BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+      String first = in.readLine(); // the login menu or state record, or a refusal
+      if (first == null || first.startsWith(BUSY) || first.equals(HEADLESS_BUSY)) {
+        refused.increment();
+        return;
+      }
+      OutputStream out = new BufferedOutputStream(s.getOutputStream());
+      out.write(script(clientId).getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      long chars = first.length() + 1;
+      char[] buf = new char[4096];
+      for (int n; (n = in.read(buf)) > 0;) chars += n;
+      long t = System.nanoTime() - t0;
+      received.add(chars);
+      synchronized (latency) {
+        latency.record(t);
+      }
+    } catch (IOException e) {
+      failed.increment();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Login as the client, wishes for distinct products, order, logout, exit; one value per line. */
+  private String script(String clientId) {
+    StringBuilder sb = new StringBuilder("1\n").append(clientId).append('\n');
+    int seed = Integer.parseInt(clientId.substring(1));
+    for (int k = 0; k < wishes; k++) sb.append("4\nP").append(1 + (seed + k) % PRODUCTS).append("\n1\n");
+    return sb.append("6\n0\n0\n").toString();
+  }
+
+  /** Every session that got in placed one order with all its wishes; refused ones placed none. */
+  private static void check(Warehouse w, int connections) {
+    int ordered = 0;
+    for (int i = 1; i <= connections; i++) {
+      List<Warehouse.Invoice> invoices = w.findClientById("C" + i).getInvoices();
+      if (invoices.size() > 1) throw new IllegalStateException("C" + i + " was invoiced " + invoices.size() + " times");
+      if (invoices.size() == 1) ordered++;
+    }
+    System.out.println(ordered + " orders invoiced");
+  }
+}
@@ -0,0 +1,507 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * Snapshot directory split into independent shard files that are written and read in parallel.
+ *
+ *   manifest          id marks, journal seq, shard sizes (written last)
+ *   clients-N.bin     clients of one contiguous range (fields + wishlist)
+ *   invoices-N.bin    invoice history of the same client range, one entry per client
+ *   invoices-N.idx    per client: block offset, offset inside the block, invoice count
+ *   products-N.bin    products of one contiguous range (with waitlists)
+ *
+ * Shards are ranges of insertion order, so stitching them back in shard order keeps listings
+ * stable. Each shard is a sequence of independently deflated blocks; blocks end on record
+ * boundaries and restart the string dictionary, so any block can be decoded on its own.
+ * Invoice entries go further and restart the dictionary per client, so read(dir, true) can
+ * leave the invoice shards on disk and decode one client's history when it is first asked for.
+ */
+final class ShardedSnapshot {
+  static final int MAGIC = 0x5748534D; // "WHSM"
+  static final int VERSION = 3; // 1: no invoice index, dictionary restarted per block only; 2: money as dollars
+  static final String MANIFEST = "manifest";
+
+  private static final int BLOCK_SIZE = 256 * 1024;
+  private static final int INVOICE_BLOCK_SIZE = 32 * 1024; // small, since lazy loads inflate a block per client
+  private static final int INDEX_ENTRY = 16;
+  private static final int MIN_PER_SHARD = 1024;
+
+  private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+  private ShardedSnapshot() { }
+
+  static String clientShard(int i)  { return "clients-" + i + ".bin"; }
+  static String invoiceShard(int i) { return "invoices-" + i + ".bin"; }
+  static String productShard(int i) { return "products-" + i + ".bin"; }
+  static String invoiceIndex(int i) { return "invoices-" + i + ".idx"; }
+
+  /** Shard count: roughly two per core, but no tiny shards. */
+  static int shardsFor(int items) {
+    int cores = Runtime.getRuntime().availableProcessors();
+    return Math.max(1, Math.min(cores * 2, items / MIN_PER_SHARD));
+  }
+
+  // ========================= Write =========================
+
+  /** Writes every shard in parallel, fsyncs them, then the manifest. Returns total bytes. */
+  static long write(Warehouse w, Path dir) throws IOException {
+    Files.createDirectories(dir);
+    Client[] clients = toArray(w.getClients(), w.getClientList().size(), new Client[0]);
+    Product[] products = toArray(w.getProducts(), w.getProductCatalog().size(), new Product[0]);
+    int cs = shardsFor(clients.length), ps = shardsFor(products.length);
+
+    List<Callable<Long>> tasks = new ArrayList<>();
+    for (int i = 0; i < cs; i++) {
+      final int from = from(i, cs, clients.length), to = from(i + 1, cs, clients.length);
+      final int shard = i;
+      tasks.add(() -> writeShard(dir.resolve(clientShard(shard)), BLOCK_SIZE, (e, out) -> {
+        for (int k = from; k < to; k++) {
+          WarehouseCodec.writeClientCore(e, clients[k]);
+          out.endRecord(e);
+        }
+      }));
+      tasks.add(() -> writeInvoiceShard(dir, shard, clients, from, to));
+    }
+    for (int i = 0; i < ps; i++) {
+      final int from = from(i, ps, products.length), to = from(i + 1, ps, products.length);
+      final int shard = i;
+      tasks.add(() -> writeShard(dir.resolve(productShard(shard)), BLOCK_SIZE, (e, out) -> {
+        for (int k = from; k < to; k++) {
+          WarehouseCodec.writeProduct(e, products[k], w.getClientList());
+          out.endRecord(e);
+        }
+      }));
+    }
+    long bytes = 0;
+    for (Long n : invokeAll(tasks)) bytes += n;
+
+    Path manifest = dir.resolve(MANIFEST);
+    try (FileOutputStream fos = new FileOutputStream(manifest.toFile());
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      IdService.Sequence[] seqs = IdService.Sequence.values();
+      out.writeInt(seqs.length);
+      for (IdService.Sequence s : seqs) out.writeLong(w.getIdService().getHighWater(s));
+      out.writeLong(w.getJournalSeq());
+      out.writeInt(cs);
+      for (int i = 0; i < cs; i++) out.writeInt(from(i + 1, cs, clients.length) - from(i, cs, clients.length));
+      out.writeInt(ps);
+      for (int i = 0; i < ps; i++) out.writeInt(from(i + 1, ps, products.length) - from(i, ps, products.length));
+      out.flush();
+      fos.getFD().sync();
+    }
+    syncDirectory(dir);
+    return bytes + Files.size(manifest);
+  }
+
+  private interface ShardBody {
+    void write(WarehouseCodec.Encoder e, BlockOutputStream out) throws IOException;
+  }
+
+  private static long writeShard(Path file, int blockSize, ShardBody body) throws IOException {
+    try (FileOutputStream fos = new FileOutputStream(file.toFile());
+         BlockOutputStream out = new BlockOutputStream(new BufferedOutputStream(fos, 1 << 16), blockSize)) {
+      body.write(new WarehouseCodec.Encoder(out), out);
+      out.finish();
+      fos.getFD().sync();
+    }
+    return Files.size(file);
+  }
+
+  /** Invoice entries restart the dictionary per client and are located through the .idx file. */
+  private static long writeInvoiceShard(Path dir, int shard, Client[] clients, int from, int to) throws IOException {
+    Path idxFile = dir.resolve(invoiceIndex(shard));
+    long bytes;
+    try (FileOutputStream fos = new FileOutputStream(idxFile.toFile());
+         DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+      bytes = writeShard(dir.resolve(invoiceShard(shard)), INVOICE_BLOCK_SIZE, (e, out) -> {
+        for (int k = from; k < to; k++) {
+          List<Warehouse.Invoice> invoices = clients[k].getInvoices();
+          idx.writeLong(out.blockOffset());
+          idx.writeInt(out.offsetInBlock());
+          idx.writeInt(invoices.size());
+          WarehouseCodec.writeInvoices(e, invoices);
+          e.resetDictionary();
+          out.endRecord(e);
+        }
+      });
+      idx.flush();
+      fos.getFD().sync();
+    }
+    return bytes + Files.size(idxFile);
+  }
+
+  // ========================= Read =========================
+
+  /** Reads every shard in parallel and stitches them into a detached Warehouse. */
+  static Warehouse read(Path dir) throws IOException {
+    return read(dir, false);
+  }
+
+  /**
+   * As read(dir), but with lazyInvoices the invoice shards are left open instead of decoded:
+   * each client's history is decoded on its first getInvoices(), so startup cost and resident
+   * memory follow the clients actually used rather than the total history.
+   */
+  static Warehouse read(Path dir, boolean lazyInvoices) throws IOException {
+    int version;
+    long[] marks;
+    long journalSeq;
+    int[] clientCounts, productCounts;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(dir.resolve(MANIFEST))))) {
+      if (in.readInt() != MAGIC) throw new StreamCorruptedException("not a sharded warehouse snapshot");
+      version = in.readInt();
+      if (version < 1 || version > VERSION) throw new StreamCorruptedException("unsupported snapshot version " + version);
+      marks = new long[in.readInt()];
+      for (int i = 0; i < marks.length; i++) marks[i] = in.readLong();
+      journalSeq = in.readLong();
+      clientCounts = new int[in.readInt()];
+      for (int i = 0; i < clientCounts.length; i++) clientCounts[i] = in.readInt();
+      productCounts = new int[in.readInt()];
+      for (int i = 0; i < productCounts.length; i++) productCounts[i] = in.readInt();
+    }
+
+    boolean perClient = version >= 2;
+    boolean lazy = lazyInvoices && perClient; // version 1 has no invoice index
+    boolean dollars = version < 3;
+    List<Callable<List<?>>> tasks = new ArrayList<>();
+    for (int i = 0; i < clientCounts.length; i++) {
+      final int shard = i, n = clientCounts[i];
+      tasks.add(() -> {
+        List<Client> list = new ArrayList<>(n);
+        readShard(dir.resolve(clientShard(shard)), n, false, dollars, d -> list.add(WarehouseCodec.readClientCore(d)));
+        if (lazy) {
+          InvoiceShard invoices = InvoiceShard.open(dir.resolve(invoiceShard(shard)), dir.resolve(invoiceIndex(shard)), n, dollars);
+          int deferred = 0;
+          for (int k = 0; k < n; k++) {
+            if (invoices.count(k) == 0) continue;
+            final int entry = k;
+            invoices.defer();
+            deferred++;
+            list.get(k).deferInvoices(id -> invoices.load(entry, id), invoices.count(k));
+          }
+          if (deferred == 0) invoices.close(); // no history in this range
+          return list;
+        }
+        int[] k = { 0 };
+        readShard(dir.resolve(invoiceShard(shard)), n, perClient, dollars, d -> {
+          Client c = list.get(k[0]++);
+          for (Warehouse.Invoice inv : WarehouseCodec.readInvoices(d, c.getId())) c.addInvoice(inv);
+        });
+        return list;
+      });
+    }
+    for (int i = 0; i < productCounts.length; i++) {
+      final int shard = i, n = productCounts[i];
+      tasks.add(() -> {
+        List<Product> list = new ArrayList<>(n);
+        readShard(dir.resolve(productShard(shard)), n, false, dollars, d -> list.add(WarehouseCodec.readProduct(d)));
+        return list;
+      });
+    }
+    List<List<?>> parts = invokeAll(tasks);
+
+    // Stitch in shard order so insertion order survives
+    ClientList clients = ClientList.detached();
+    ProductCatalog products = ProductCatalog.detached();
+    for (int i = 0; i < parts.size(); i++) {
+      for (Object o : parts.get(i)) {
+        if (i < clientCounts.length) clients.restoreClient((Client) o);
+        else products.restoreProduct((Product) o);
+      }
+    }
+    return Warehouse.restored(clients, products, IdService.restored(marks), journalSeq);
+  }
+
+  private interface RecordReader {
+    void read(WarehouseCodec.Decoder d) throws IOException;
+  }
+
+  private static void readShard(Path file, int records, boolean dictionaryPerRecord, boolean dollars, RecordReader reader) throws IOException {
+    try (BlockInputStream in = new BlockInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+      WarehouseCodec.Decoder d = new WarehouseCodec.Decoder(in);
+      d.dollarMoney = dollars;
+      for (int i = 0; i < records; i++) {
+        if (dictionaryPerRecord || in.atBlockBoundary()) d.resetDictionary();
+        reader.read(d);
+      }
+    }
+  }
+
+  /**
+   * An invoice shard opened for lazy loads, with its index read into memory. Only the block
+   * holding a client's entry is read (a positional read, so the OS page cache does the rest) and
+   * inflated; the last inflated block is kept, since neighbours are often read together. Once
+   * every deferred entry has been loaded the file and the Inflater are released, so the
+   * snapshot directory can be replaced (see Warehouse.writeSnapshot) on any platform.
+   */
+  static final class InvoiceShard implements Closeable {
+    private final FileChannel data;
+    private final long[] offsets;  // per entry: offset of its block
+    private final int[] inBlock;   // per entry: offset inside the inflated block
+    private final int[] counts;    // per entry: invoice count
+    private final boolean dollars; // written before money was stored as cents
+    private final Inflater inflater = new Inflater();
+    private byte[] compressed = new byte[INVOICE_BLOCK_SIZE];
+    private byte[] block = new byte[INVOICE_BLOCK_SIZE * 2];
+    private long blockOffset = -1;
+    private int blockLength;
+    private int pending; // deferred entries not loaded yet
+    private boolean closed;
+
+    private InvoiceShard(FileChannel data, long[] offsets, int[] inBlock, int[] counts, boolean dollars) {
+      this.data = data;
+      this.offsets = offsets;
+      this.inBlock = inBlock;
+      this.counts = counts;
+      this.dollars = dollars;
+    }
+
+    static InvoiceShard open(Path file, Path indexFile, int entries, boolean dollars) throws IOException {
+      long[] offsets = new long[entries];
+      int[] inBlock = new int[entries], counts = new int[entries];
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile), 1 << 16))) {
+        for (int k = 0; k < entries; k++) {
+          offsets[k] = in.readLong();
+          inBlock[k] = in.readInt();
+          counts[k] = in.readInt();
+        }
+      }
+      return new InvoiceShard(FileChannel.open(file, StandardOpenOption.READ), offsets, inBlock, counts, dollars);
+    }
+
+    int count(int entry) {
+      return counts[entry];
+    }
+
+    /** Marks an entry as deferred: the shard stays open until it has been loaded. */
+    synchronized void defer() {
+      pending++;
+    }
+
+    /** Decodes one deferred entry; releases the shard after the last one. */
+    synchronized List<Warehouse.Invoice> load(int entry, String clientId) throws IOException {
+      if (closed) throw new IOException("invoice shard already released");
+      if (offsets[entry] != blockOffset) inflate(offsets[entry]);
+      WarehouseCodec.Decoder d = new WarehouseCodec.Decoder(
+          new ByteArrayInputStream(block, inBlock[entry], blockLength - inBlock[entry]));
+      d.dollarMoney = dollars;
+      List<Warehouse.Invoice> invoices = WarehouseCodec.readInvoices(d, clientId);
+      if (--pending == 0) close();
+      return invoices;
+    }
+
+    private void inflate(long offset) throws IOException {
+      ByteBuffer header = ByteBuffer.allocate(8);
+      readFully(header, offset);
+      int raw = header.getInt(0), n = header.getInt(4);
+      if (compressed.length < n) compressed = new byte[n];
+      readFully(ByteBuffer.wrap(compressed, 0, n), offset + 8);
+      if (block.length < raw) block = new byte[raw];
+      inflater.reset();
+      inflater.setInput(compressed, 0, n);
+      try {
+        int got = 0;
+        while (got < raw && !inflater.finished()) got += inflater.inflate(block, got, raw - got);
+        if (got != raw) throw new StreamCorruptedException("short block");
+      } catch (DataFormatException e) {
+        throw new StreamCorruptedException("corrupt block: " + e.getMessage());
+      }
+      blockOffset = offset;
+      blockLength = raw;
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+      while (buf.hasRemaining()) {
+        int got = data.read(buf, position);
+        if (got < 0) throw new EOFException("invoice shard ends inside a block");
+        position += got;
+      }
+    }
+
+    /** Closes the file and frees the Inflater's native memory. */
+    @Override public synchronized void close() throws IOException {
+      if (closed) return;
+      closed = true;
+      inflater.end();
+      block = compressed = null;
+      data.close();
+    }
+  }
+
+  // ========================= Helpers =========================
+
+  private static int from(int shard, int shards, int n) {
+    return (int) ((long) n * shard / shards);
+  }
+
+  private static <T> T[] toArray(Iterator<T> it, int sizeHint, T[] type) {
+    List<T> list = new ArrayList<>(sizeHint);
+    while (it.hasNext()) list.add(it.next());
+    return list.toArray(type);
+  }
+
+  private static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws IOException {
+    List<T> results = new ArrayList<>(tasks.size());
+    for (Future<T> f : pool.invokeAll(tasks)) {
+      try {
+        results.add(f.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("snapshot interrupted");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) throw (IOException) cause;
+        throw new IOException(cause);
+      }
+    }
+    return results;
+  }
+
+  /** Makes renames/creates inside a directory durable (best effort; not supported everywhere). */
+  static void syncDirectory(Path dir) {
+    try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+      ch.force(true);
+    } catch (IOException ignore) { }
+  }
+
+  // ========================= Block compression =========================
+
+  /** Buffers records and writes them as deflated blocks: int rawLength | int deflatedLength | bytes. */
+  static final class BlockOutputStream extends OutputStream {
+    private final DataOutputStream out;
+    private final int blockSize;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] buf;
+    private int len;
+    private byte[] packed = new byte[0];
+    private long flushed; // bytes of complete blocks written so far
+
+    BlockOutputStream(OutputStream out, int blockSize) {
+      this.out = new DataOutputStream(out);
+      this.blockSize = blockSize;
+      this.buf = new byte[blockSize + (blockSize >> 2)];
+    }
+
+    @Override public void write(int b) {
+      ensure(1);
+      buf[len++] = (byte) b;
+    }
+
+    @Override public void write(byte[] b, int off, int n) {
+      ensure(n);
+      System.arraycopy(b, off, buf, len, n);
+      len += n;
+    }
+
+    private void ensure(int n) {
+      if (len + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+    }
+
+    /** File offset of the block the next record goes into. */
+    long blockOffset() { return flushed; }
+
+    /** Where the next record starts inside its (still uncompressed) block. */
+    int offsetInBlock() { return len; }
+
+    /** Called after each record: closes the block once it is full and restarts the dictionary. */
+    void endRecord(WarehouseCodec.Encoder e) throws IOException {
+      if (len >= blockSize) {
+        flushBlock();
+        e.resetDictionary();
+      }
+    }
+
+    private void flushBlock() throws IOException {
+      if (len == 0) return;
+      deflater.reset();
+      deflater.setInput(buf, 0, len);
+      deflater.finish();
+      if (packed.length < len + 64) packed = new byte[len + (len >> 3) + 64];
+      int n = 0;
+      while (!deflater.finished()) {
+        if (n == packed.length) packed = Arrays.copyOf(packed, packed.length * 2);
+        n += deflater.deflate(packed, n, packed.length - n);
+      }
+      out.writeInt(len);
+      out.writeInt(n);
+      out.write(packed, 0, n);
+      flushed += 8 + n;
+      len = 0;
+    }
+
+    void finish() throws IOException {
+      flushBlock();
+      out.flush();
+    }
+
+    @Override public void close() throws IOException {
+      deflater.end();
+      out.close();
+    }
+  }
+
+  /** Reads what BlockOutputStream wrote, one inflated block at a time. */
+  static final class BlockInputStream extends InputStream {
+    private final DataInputStream in;
+    private final Inflater inflater = new Inflater();
+    private byte[] buf = new byte[0];
+    private byte[] packed = new byte[0];
+    private int pos, limit;
+
+    BlockInputStream(InputStream in) {
+      this.in = new DataInputStream(in);
+    }
+
+    /** True when the next byte starts a new block (so readers restart their dictionary). */
+    boolean atBlockBoundary() {
+      return pos == limit;
+    }
+
+    private boolean fill() throws IOException {
+      int raw;
+      try { raw = in.readInt(); } catch (EOFException e) { return false; }
+      int n = in.readInt();
+      if (packed.length < n) packed = new byte[n];
+      in.readFully(packed, 0, n);
+      if (buf.length < raw) buf = new byte[raw];
+      inflater.reset();
+      inflater.setInput(packed, 0, n);
+      try {
+        int got = 0;
+        while (got < raw && !inflater.finished()) got += inflater.inflate(buf, got, raw - got);
+        if (got != raw) throw new StreamCorruptedException("short block");
+      } catch (DataFormatException e) {
+        throw new StreamCorruptedException("corrupt block: " + e.getMessage());
+      }
+      pos = 0;
+      limit = raw;
+      return true;
+    }
+
+    @Override public int read() throws IOException {
+      if (pos == limit && !fill()) return -1;
+      return buf[pos++] & 0xff;
+    }
+
+    @Override public int read(byte[] b, int off, int n) throws IOException {
+      if (n == 0) return 0;
+      if (pos == limit && !fill()) return -1;
+      int k = Math.min(n, limit - pos);
+      System.arraycopy(buf, pos, b, off, k);
+      pos += k;
+      return k;
+    }
+
+    @Override public void close() throws IOException {
+      inflater.end();
+      in.close();
+    }
+  }
+}
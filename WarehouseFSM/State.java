@@ -5,7 +5,8 @@ import java.io.Serializable;
  * Keep implementations lightweight; do all transition requests via Context.
  *
  * Library-style notes:
- * - Use singleton pattern for each concrete state (instance()).
+ * - Each Context (session) creates its own instance of every concrete state, and a state keeps
+ *   nothing but that Context, so concurrent sessions never share menu state.
  * - Context drives the loop by calling onEnter -> run -> onExit.
  */
 public interface State extends Serializable {
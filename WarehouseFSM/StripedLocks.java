@@ -0,0 +1,63 @@
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed array of locks addressed by key hash (lock striping).
+ * Operations on keys that land in different stripes never contend.
+ *
+ * Lock order used by Warehouse (never acquire in the other direction):
+ *   client stripe -> product stripes (ascending index) -> Client monitor (leaf)
+ */
+public final class StripedLocks {
+  private final ReentrantLock[] locks;
+  private final int mask;
+
+  public StripedLocks(int minStripes) {
+    int n = 1;
+    while (n < minStripes) n <<= 1; // power of two so the index is a mask
+    locks = new ReentrantLock[n];
+    for (int i = 0; i < n; i++) locks[i] = new ReentrantLock();
+    mask = n - 1;
+  }
+
+  /** Default sizing: plenty of stripes per core so unrelated keys rarely collide. */
+  public StripedLocks() {
+    this(Math.max(64, Runtime.getRuntime().availableProcessors() * 16));
+  }
+
+  public int stripes() { return locks.length; }
+
+  /** Stripe index for a key (spread the hash so similar ids like P1, P2 scatter). */
+  public int stripeOf(String key) {
+    int h = (key == null) ? 0 : key.hashCode();
+    h ^= (h >>> 16);
+    h *= 0x45d9f3b;
+    h ^= (h >>> 16);
+    return h & mask;
+  }
+
+  public void lock(int stripe)   { locks[stripe].lock(); }
+  public void unlock(int stripe) { locks[stripe].unlock(); }
+
+  /** Sorted, de-duplicated stripe indexes for a set of keys (the fixed acquisition order). */
+  public int[] stripesFor(Collection<String> keys) {
+    int[] s = new int[keys.size()];
+    int n = 0;
+    for (String k : keys) s[n++] = stripeOf(k);
+    Arrays.sort(s, 0, n);
+    int u = 0;
+    for (int i = 0; i < n; i++) {
+      if (u == 0 || s[u - 1] != s[i]) s[u++] = s[i];
+    }
+    return Arrays.copyOf(s, u);
+  }
+
+  /** Locks every stripe in ascending order; stripes must come from stripesFor(...). */
+  public void lockAll(int[] stripes) {
+    for (int s : stripes) locks[s].lock();
+  }
+
+  public void unlockAll(int[] stripes) {
+    for (int i = stripes.length - 1; i >= 0; i--) locks[stripes[i]].unlock();
+  }
+}
@@ -1,23 +1,40 @@
 import java.io.Serializable;
 import java.util.Objects;
 
-/** Product-side waitlist entry (FIFO). */
+/**
+ * Product-side waitlist entry (FIFO). Products store their waitlist in a WaitQueue; this is a
+ * read-only view of one entry (for menus, reports and cancellation), plus the legacy stored form.
+ */
 public class WaitList implements Serializable {
   private static final long serialVersionUID = 1L;
 
   private final String clientId;
+  private String productId;
   private int qty;
-  private final long createdAt = System.currentTimeMillis(); // FIFO tie-breaker
+  private final long createdAt; // FIFO tie-breaker
+  private transient long seq = -1; // the entry's WaitQueue sequence number
 
   public WaitList(String clientId, int qty) {
-    this.clientId = clientId; this.qty = qty;
+    this(clientId, qty, System.currentTimeMillis());
+  }
+
+  WaitList(String clientId, int qty, long createdAt) {
+    this.clientId = clientId; this.qty = qty; this.createdAt = createdAt;
+  }
+
+  /** View of a queued entry. */
+  WaitList(String clientId, String productId, int qty, long createdAt, long seq) {
+    this(clientId, qty, createdAt);
+    this.productId = productId;
+    this.seq = seq;
   }
 
   public String getClientId() { return clientId; }
+  public String getProductId() { return productId; }
   public int getQty() { return qty; }
-  public void consume(int n) { qty -= n; }
   public boolean cleared() { return qty <= 0; }
   public long getCreatedAt() { return createdAt; }
+  long getSeq() { return seq; }
 
   @Override public boolean equals(Object o) {
     if (this == o) return true;
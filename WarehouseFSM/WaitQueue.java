@@ -0,0 +1,305 @@
+import java.io.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * A product's FIFO waitlist as a growable ring buffer of parallel primitive arrays:
+ * client slot (ClientList position), remaining qty and createdAt. 16 bytes per entry and no
+ * per-entry objects, so shortages with millions of backorders do not load the GC. A Fenwick
+ * tree over the qty array (8 more bytes per slot) gives prefix sums in O(log n), so a shipment
+ * finds how many entries it fills completely without walking them; see fullFills().
+ *
+ * Every entry gets a sequence number when it is queued; seq - headSeq is its distance from
+ * the head, so an entry is found in O(1). Cancelled entries are tombstones (qty 0): they keep
+ * their slot, so the remaining entries keep both their order and their sequence numbers, and
+ * they are dropped when they reach the head. Guarded by the product's stripe lock.
+ */
+public final class WaitQueue implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private transient int[] client;
+  private transient int[] qty;
+  private transient long[] createdAt;
+  private transient String[] pendingIds; // loaded entries whose client slot is not known yet, see bind()
+  private transient int head;            // array index of the oldest entry
+  private transient int size;            // entries including tombstones
+  private transient int cancelled;       // tombstones among them
+  private transient long headSeq;        // seq of the entry at head
+  private transient long[] fenwick;      // 1-based sums over qty by array index; empty slots hold 0
+
+  public WaitQueue() { init(8); }
+
+  private void init(int capacity) {
+    client = new int[capacity];
+    qty = new int[capacity];
+    createdAt = new long[capacity];
+    fenwick = new long[capacity + 1];
+    head = size = cancelled = 0;
+  }
+
+  public boolean isEmpty() { return size == cancelled; }
+  /** Open (not cancelled) entries. */
+  public int liveSize() { return size - cancelled; }
+
+  /** Appends an entry; returns its sequence number. */
+  public long add(int clientSlot, int q, long created) {
+    if (size == client.length) grow();
+    int i = index(size);
+    client[i] = clientSlot;
+    qty[i] = q;
+    createdAt[i] = created;
+    if (pendingIds != null) pendingIds[i] = null;
+    treeAdd(i, q);
+    return headSeq + size++;
+  }
+
+  /** Loader append for an entry known only by client id; bind() resolves it. */
+  void addPending(String clientId, int q, long created) {
+    if (pendingIds == null) pendingIds = new String[client.length];
+    add(-1, q, created);
+    pendingIds[index(size - 1)] = clientId;
+  }
+
+  /** Resolves loaded client ids to slots; entries for unknown clients are dropped. */
+  void bind(ToIntFunction<String> slotOf) {
+    if (pendingIds == null) return;
+    for (int k = 0; k < size; k++) {
+      int i = index(k);
+      if (pendingIds[i] == null) continue;
+      client[i] = slotOf.applyAsInt(pendingIds[i]);
+      if (client[i] < 0 && qty[i] > 0) { treeAdd(i, -qty[i]); qty[i] = 0; cancelled++; }
+    }
+    pendingIds = null;
+    skipCancelled();
+  }
+
+  // ----- head access (FIFO), used by receiveShipment -----
+
+  /** Drops tombstones at the head; true if an open entry is now at the head. */
+  public boolean skipCancelled() {
+    while (size > 0 && qty[head] == 0) {
+      head = (head + 1) & (client.length - 1);
+      size--;
+      cancelled--;
+      headSeq++;
+    }
+    return size > 0;
+  }
+  public int headClient() { return client[head]; }
+  public int headQty() { return qty[head]; }
+  public long headCreatedAt() { return createdAt[head]; }
+  public long headSeq() { return headSeq; }
+
+  /** Takes n from the head entry and removes it once filled; true if it was removed. */
+  public boolean consumeHead(int n) {
+    qty[head] -= n;
+    treeAdd(head, -n);
+    if (qty[head] > 0) return false;
+    head = (head + 1) & (client.length - 1);
+    size--;
+    headSeq++;
+    return true;
+  }
+
+  // ----- bulk fill from the head, used by receiveShipment -----
+
+  /** Entries (tombstones included) at the head in the queue, open or not. */
+  int depth() { return size; }
+
+  /**
+   * How many entries from the head, tombstones included, a shipment of qty fills completely:
+   * the longest run whose quantities sum to at most qty. Binary search on the prefix sums, so
+   * O(log n) whatever the backlog. The entry after the run, if any, is open and needs more than
+   * what is left over.
+   */
+  int fullFills(long qty) {
+    int cap = client.length;
+    if (head + size <= cap) return Math.min(treeSearch(prefix(head) + qty) - head, size);
+    long toEnd = prefix(cap) - prefix(head);
+    if (qty < toEnd) return treeSearch(prefix(head) + qty) - head;
+    return (cap - head) + Math.min(treeSearch(qty - toEnd), size - (cap - head));
+  }
+
+  /** Sum of qty over the first k entries from the head. */
+  long headSum(int k) {
+    int cap = client.length, end = head + k;
+    if (end <= cap) return prefix(end) - prefix(head);
+    return prefix(cap) - prefix(head) + prefix(end - cap);
+  }
+
+  /** Open entries among the first k; no scan unless something was cancelled. */
+  int openAmong(int k) {
+    if (cancelled == 0) return k;
+    int open = 0;
+    for (int j = 0; j < k; j++) if (qty[index(j)] > 0) open++;
+    return open;
+  }
+
+  /** Visits the open entries among the first k, oldest first, then removes all k in one step. */
+  void drainHead(int k, EntryVisitor v) {
+    int cap = client.length;
+    boolean rebuild = k > cap / (32 - Integer.numberOfLeadingZeros(cap)); // cheaper than k tree updates
+    for (int j = 0; j < k; j++) {
+      int i = index(j);
+      if (qty[i] == 0) { cancelled--; continue; }
+      v.visit(headSeq + j, client[i], qty[i], createdAt[i]);
+      if (!rebuild) treeAdd(i, -qty[i]);
+      qty[i] = 0;
+    }
+    head = index(k);
+    size -= k;
+    headSeq += k;
+    if (rebuild) rebuildTree();
+  }
+
+  // ----- random access by sequence number -----
+
+  /** Array index of an open entry, or -1 if it was filled, cancelled or never existed. */
+  private int find(long seq) {
+    long k = seq - headSeq;
+    if (k < 0 || k >= size) return -1;
+    int i = index((int) k);
+    return qty[i] > 0 ? i : -1;
+  }
+  public boolean contains(long seq) { return find(seq) >= 0; }
+  public int clientOf(long seq) { int i = find(seq); return i < 0 ? -1 : client[i]; }
+  public int qtyOf(long seq) { int i = find(seq); return i < 0 ? 0 : qty[i]; }
+  public long createdAtOf(long seq) { int i = find(seq); return i < 0 ? 0 : createdAt[i]; }
+
+  /** O(1) cancel; false if the entry is no longer open. */
+  public boolean cancel(long seq) {
+    int i = find(seq);
+    if (i < 0) return false;
+    treeAdd(i, -qty[i]);
+    qty[i] = 0;
+    cancelled++;
+    skipCancelled();
+    return true;
+  }
+
+  /** Visits open entries oldest first. */
+  public void forEach(EntryVisitor v) {
+    for (int k = 0; k < size; k++) {
+      int i = index(k);
+      if (qty[i] > 0) v.visit(headSeq + k, client[i], qty[i], createdAt[i]);
+    }
+  }
+
+  /** Like forEach, but stops once stop says so (paged or cancelled reports). */
+  public void forEach(EntryVisitor v, java.util.function.BooleanSupplier stop) {
+    for (int k = 0; k < size && !stop.getAsBoolean(); k++) {
+      int i = index(k);
+      if (qty[i] > 0) v.visit(headSeq + k, client[i], qty[i], createdAt[i]);
+    }
+  }
+
+  /** Open entries with seq > afterSeq, oldest first, until stop says so; seqs never change, so afterSeq works as a cursor. */
+  public void forEachAfter(long afterSeq, EntryVisitor v, java.util.function.BooleanSupplier stop) {
+    for (long k = Math.max(0, afterSeq + 1 - headSeq); k < size && !stop.getAsBoolean(); k++) {
+      int i = index((int) k);
+      if (qty[i] > 0) v.visit(headSeq + k, client[i], qty[i], createdAt[i]);
+    }
+  }
+
+  public interface EntryVisitor {
+    void visit(long seq, int clientSlot, int qty, long createdAt);
+  }
+
+  /** Detached copy for a background snapshot; open entries only, renumbered from 0. */
+  WaitQueue snapshotCopy() {
+    WaitQueue q = new WaitQueue();
+    q.init(Math.max(8, Integer.highestOneBit(Math.max(1, liveSize())) << 1));
+    forEach((seq, c, n, t) -> q.add(c, n, t));
+    return q;
+  }
+
+  private int index(int k) { return (head + k) & (client.length - 1); }
+
+  // ----- Fenwick tree over qty[] -----
+
+  private void treeAdd(int i, long delta) {
+    for (int x = i + 1; x < fenwick.length; x += x & -x) fenwick[x] += delta;
+  }
+
+  /** Sum of qty[0..n). */
+  private long prefix(int n) {
+    long s = 0;
+    for (int x = n; x > 0; x -= x & -x) s += fenwick[x];
+    return s;
+  }
+
+  /** Largest n with prefix(n) <= target. */
+  private int treeSearch(long target) {
+    int n = 0;
+    for (int step = Integer.highestOneBit(client.length); step > 0; step >>= 1) {
+      if (n + step < fenwick.length && fenwick[n + step] <= target) {
+        n += step;
+        target -= fenwick[n];
+      }
+    }
+    return n;
+  }
+
+  /** O(capacity) build from qty[]. */
+  private void rebuildTree() {
+    fenwick = new long[client.length + 1];
+    for (int i = 0; i < qty.length; i++) fenwick[i + 1] = qty[i];
+    for (int x = 1; x < fenwick.length; x++) {
+      int parent = x + (x & -x);
+      if (parent < fenwick.length) fenwick[parent] += fenwick[x];
+    }
+  }
+
+  private void grow() {
+    int n = client.length;
+    client = unwrap(client, new int[n * 2]);
+    qty = unwrap(qty, new int[n * 2]);
+    createdAt = unwrapLongs(createdAt, new long[n * 2]);
+    if (pendingIds != null) {
+      String[] p = new String[n * 2];
+      for (int k = 0; k < size; k++) p[k] = pendingIds[(head + k) & (n - 1)];
+      pendingIds = p;
+    }
+    head = 0;
+    rebuildTree();
+  }
+
+  private int[] unwrap(int[] from, int[] to) {
+    int tail = from.length - head;
+    System.arraycopy(from, head, to, 0, Math.min(size, tail));
+    if (size > tail) System.arraycopy(from, 0, to, tail, size - tail);
+    return to;
+  }
+
+  private long[] unwrapLongs(long[] from, long[] to) {
+    int tail = from.length - head;
+    System.arraycopy(from, head, to, 0, Math.min(size, tail));
+    if (size > tail) System.arraycopy(from, 0, to, tail, size - tail);
+    return to;
+  }
+
+  // Only open entries are written; slots stay valid because ClientList order is saved with them
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeInt(liveSize());
+    for (int k = 0; k < size; k++) {
+      int i = index(k);
+      if (qty[i] == 0) continue;
+      out.writeInt(client[i]);
+      out.writeInt(qty[i]);
+      out.writeLong(createdAt[i]);
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    int n = in.readInt();
+    init(Math.max(8, Integer.highestOneBit(Math.max(1, n)) << 1));
+    for (int k = 0; k < n; k++) add(in.readInt(), in.readInt(), in.readLong());
+  }
+
+  @Override public String toString() {
+    StringBuilder sb = new StringBuilder("[");
+    forEach((seq, c, n, t) -> sb.append(sb.length() > 1 ? ", " : "").append('#').append(c).append(" x ").append(n));
+    return sb.append(']').toString();
+  }
+}
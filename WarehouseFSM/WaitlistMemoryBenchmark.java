@@ -0,0 +1,91 @@
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * Memory and GC cost of one hot product's waitlist: the old ArrayDeque of WaitList objects
+ * against WaitQueue.
+ *
+ *   java -Xmx4g WaitlistMemoryBenchmark              (1M and 5M backorders)
+ *   java -Xmx4g WaitlistMemoryBenchmark 10000000     (entry counts)
+ *
+ * For each size it fills the queue, measures the retained heap after a full GC, then drains it
+ * head first the way receiveShipment does, reporting time and collector activity for both phases.
+ * Client ids are shared strings, as they are in the warehouse, so only the queue itself is counted.
+ */
+public class WaitlistMemoryBenchmark {
+  private static final int CLIENTS = 10_000;
+
+  public static void main(String[] args) {
+    int[] sizes = args.length == 0 ? new int[] { 1_000_000, 5_000_000 } : new int[args.length];
+    for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i].replace("_", ""));
+    String[] ids = new String[CLIENTS];
+    for (int c = 0; c < CLIENTS; c++) ids[c] = "C" + (c + 1);
+
+    deque(ids, 100_000);
+    ring(100_000); // warm up both paths
+
+    System.out.printf("%-10s %10s %10s %10s %10s %8s %8s%n",
+        "queue", "entries", "bytes/ent", "fill ms", "drain ms", "gc runs", "gc ms");
+    for (int n : sizes) {
+      print("deque", n, deque(ids, n));
+      print("ring", n, ring(n));
+    }
+  }
+
+  /** { retained bytes, fill ns, drain ns, gc count, gc ms } */
+  private static long[] deque(String[] ids, int n) {
+    long base = usedAfterGc(), gc0 = gcCount(), gt0 = gcMillis();
+    long t0 = System.nanoTime();
+    Deque<WaitList> q = new ArrayDeque<>();
+    for (int i = 0; i < n; i++) q.addLast(new WaitList(ids[i % CLIENTS], 1 + i % 7, i));
+    long t1 = System.nanoTime();
+    long retained = usedAfterGc() - base;
+    long t2 = System.nanoTime();
+    long sum = 0;
+    while (!q.isEmpty()) sum += q.pollFirst().getQty();
+    long t3 = System.nanoTime();
+    if (sum == 0) throw new IllegalStateException();
+    return new long[] { retained, t1 - t0, t3 - t2, gcCount() - gc0, gcMillis() - gt0 };
+  }
+
+  private static long[] ring(int n) {
+    long base = usedAfterGc(), gc0 = gcCount(), gt0 = gcMillis();
+    long t0 = System.nanoTime();
+    WaitQueue q = new WaitQueue();
+    for (int i = 0; i < n; i++) q.add(i % CLIENTS, 1 + i % 7, i);
+    long t1 = System.nanoTime();
+    long retained = usedAfterGc() - base;
+    long t2 = System.nanoTime();
+    long sum = 0;
+    while (q.skipCancelled()) {
+      sum += q.headQty();
+      q.consumeHead(q.headQty());
+    }
+    long t3 = System.nanoTime();
+    if (sum == 0) throw new IllegalStateException();
+    return new long[] { retained, t1 - t0, t3 - t2, gcCount() - gc0, gcMillis() - gt0 };
+  }
+
+  private static void print(String name, int n, long[] r) {
+    System.out.printf("%-10s %10d %10.1f %10.1f %10.1f %8d %8d%n",
+        name, n, (double) r[0] / n, r[1] / 1e6, r[2] / 1e6, r[3], r[4]);
+  }
+
+  private static long usedAfterGc() {
+    for (int i = 0; i < 3; i++) System.gc();
+    Runtime rt = Runtime.getRuntime();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  private static long gcCount() {
+    long n = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionCount());
+    return n;
+  }
+
+  private static long gcMillis() {
+    long n = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionTime());
+    return n;
+  }
+}
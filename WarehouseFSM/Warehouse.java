@@ -1,87 +1,310 @@
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 
-/** Central service. Uses ClientList.instance() and ProductCatalog.instance(). */
+/**
+ * Central service. Uses ClientList.instance() and ProductCatalog.instance().
+ * Safe for concurrent sessions: per-client and per-product striped locks, always taken
+ * client stripe -> product stripes (ascending) -> Client monitor, so orders can't deadlock.
+ */
 public class Warehouse implements Serializable {
   private static final long serialVersionUID = 1L;
 
   // =================== Invoice and InvoiceLine classes ===================
   public static class InvoiceLine implements Serializable {
     private static final long serialVersionUID = 1L;
-    private final String productId;
-    private final int qty;
-    private final double unitPrice;
-    public InvoiceLine(String productId, int qty, double unitPrice) {
-      this.productId = productId; this.qty = qty; this.unitPrice = unitPrice;
+    private String productId;
+    private int qty;
+    private long unitPriceCents;
+    public InvoiceLine(String productId, int qty, long unitPriceCents) {
+      this.productId = productId; this.qty = qty; this.unitPriceCents = unitPriceCents;
     }
     public String getProductId() { return productId; }
     public int getQty() { return qty; }
-    public double getUnitPrice() { return unitPrice; }
-    public double getLineTotal() { return qty * unitPrice; }
+    public long getUnitPriceCents() { return unitPriceCents; }
+    public long getLineTotalCents() { return qty * unitPriceCents; }
+    public double getUnitPrice() { return Money.toDollars(unitPriceCents); }
+    public double getLineTotal() { return Money.toDollars(getLineTotalCents()); }
     @Override public String toString() {
-      return String.format("%s x %d @ %.2f = %.2f", productId, qty, unitPrice, getLineTotal());
+      return String.format("%s x %d @ %.2f = %.2f", productId, qty, getUnitPrice(), getLineTotal());
+    }
+    // Lines saved before fixed-point money carry a double unitPrice
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      ObjectInputStream.GetField f = in.readFields();
+      productId = (String) f.get("productId", null);
+      qty = f.get("qty", 0);
+      unitPriceCents = hasField(f, "unitPriceCents") ? f.get("unitPriceCents", 0L) : Money.cents(f.get("unitPrice", 0.0));
     }
   }
 
+  /** Lines are added while the invoice is built; seal() then fixes the total, computed once. */
   public static class Invoice implements Serializable {
     private static final long serialVersionUID = 1L;
     private final String id;
     private final String clientId;
-    private final Date created = new Date();
+    private final Date created;
     private final List<InvoiceLine> lines = new ArrayList<>();
-    public Invoice(String id, String clientId) { this.id = id; this.clientId = clientId; }
+    private long totalCents;
+    private boolean sealed;
+    public Invoice(String id, String clientId) { this(id, clientId, System.currentTimeMillis()); }
+    public Invoice(String id, String clientId, long createdMillis) {
+      this.id = id; this.clientId = clientId; this.created = new Date(createdMillis);
+    }
     public String getId() { return id; }
     public String getClientId() { return clientId; }
     public Date getCreated() { return created; }
     public List<InvoiceLine> getLines() { return Collections.unmodifiableList(lines); }
-    public void addLine(String productId, int qty, double unitPrice) {
-      if (qty > 0) lines.add(new InvoiceLine(productId, qty, unitPrice));
+    public void addLine(String productId, int qty, long unitPriceCents) {
+      if (sealed) throw new IllegalStateException("invoice " + id + " is sealed");
+      if (qty > 0) lines.add(new InvoiceLine(productId, qty, unitPriceCents));
+    }
+    /** Fixes the lines and the total; returns this. */
+    public Invoice seal() {
+      if (!sealed) {
+        long s = 0;
+        for (InvoiceLine l : lines) s += l.getLineTotalCents();
+        totalCents = s;
+        sealed = true;
+      }
+      return this;
     }
-    public double getTotal() { double s=0; for (InvoiceLine l:lines) s+=l.getLineTotal(); return s; }
+    public boolean isSealed() { return sealed; }
+    public long getTotalCents() {
+      if (sealed) return totalCents;
+      long s = 0;
+      for (InvoiceLine l : lines) s += l.getLineTotalCents();
+      return s;
+    }
+    public double getTotal() { return Money.toDollars(getTotalCents()); }
     @Override public String toString() {
       StringBuilder sb = new StringBuilder();
       sb.append(String.format("%s  %tF  $%.2f%n", id, created, getTotal()));
       for (InvoiceLine l : lines) sb.append("  ").append(l.toString()).append('\n');
       return sb.toString();
     }
+    // Invoices saved before seal() existed were complete when saved
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+      seal();
+    }
+  }
+
+  /** True if a serialized object was written with this field (older classes may lack it). */
+  static boolean hasField(ObjectInputStream.GetField f, String name) throws IOException {
+    try {
+      return !f.defaulted(name);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
   }
   // ===================================================================
 
-  private static Warehouse instance;
+  private static volatile Warehouse instance;
   public static Warehouse instance() {
-    if (instance == null) instance = new Warehouse();
+    if (instance == null) {
+      synchronized (Warehouse.class) {
+        if (instance == null) {
+          Warehouse w = new Warehouse();
+          w.exportGauges();
+          instance = w;
+        }
+      }
+    }
     return instance;
   }
 
-  private final ClientList clientList = ClientList.instance();
-  private final ProductCatalog productCatalog = ProductCatalog.instance();
+  private final ClientList clientList;
+  private final ProductCatalog productCatalog;
+  // Saved with the Warehouse so client/product/invoice ids continue after retrieve();
+  // not final only because readObject rebuilds it for snapshots saved before IdService
+  private IdService idService;
+
+  private String nextInvoiceId() { return idService.next(IdService.Sequence.INVOICE); }
 
-  private int invoiceSeq = 1;
-  private String nextInvoiceId() { return "INV" + (invoiceSeq++); }
+  // Striped locks are runtime-only; rebuilt in readObject after retrieve()
+  private transient StripedLocks clientLocks = new StripedLocks();
+  private transient StripedLocks productLocks = new StripedLocks();
+  // Clients with a positive balance, ordered by balance; rebuilt on load
+  private transient DebtorIndex debtors = new DebtorIndex();
 
-  private Warehouse() {}
+  // Latency of every public mutation, timed to its return (journal wait included); see Metrics
+  private static final String OP_HELP = "Warehouse operation latency, including the wait for the journal";
+  private static final Metrics.Timer ADD_CLIENT_TIME = opTimer("add_client");
+  private static final Metrics.Timer ADD_PRODUCT_TIME = opTimer("add_product");
+  private static final Metrics.Timer WISHLIST_TIME = opTimer("add_to_wishlist");
+  private static final Metrics.Timer ORDER_TIME = opTimer("place_order");
+  private static final Metrics.Timer ORDER_BATCH_TIME = opTimer("place_orders_batch");
+  private static final Metrics.Timer SHIPMENT_TIME = opTimer("receive_shipment");
+  private static final Metrics.Timer SHIPMENT_BATCH_TIME = opTimer("receive_shipments_batch");
+  private static final Metrics.Timer CANCEL_TIME = opTimer("cancel_backorder");
+  private static final Metrics.Timer PAYMENT_TIME = opTimer("record_payment");
+  private static final Metrics.Timer SAVE_TIME = opTimer("save");
+  private static final Metrics.Timer RETRIEVE_TIME = opTimer("retrieve");
+  private static final Metrics.Timer SNAPSHOT_PAUSE_TIME = opTimer("snapshot_pause");
+  private static final Metrics.Timer SNAPSHOT_WRITE_TIME = opTimer("snapshot_write");
+  private static final Metrics.Counter INVOICES = Metrics.counter("warehouse_invoices_total", "Invoices created");
+  private static final Metrics.Counter INVOICED_CENTS = Metrics.counter("warehouse_invoiced_cents_total", "Sum of invoice totals");
+  private static final Metrics.Counter BACKORDERS = Metrics.counter("warehouse_backorders_total", "Waitlist entries created for quantities not in stock");
+
+  private static Metrics.Timer opTimer(String op) { return Metrics.timer("warehouse_operation_seconds", OP_HELP, "op", op); }
+
+  // Write-ahead journal (attached by save()/retrieve()); null while replaying or before persistence is used
+  private transient Journal journal;
+  // Last journal seq already folded into this snapshot; replay starts after it
+  private long journalSeq;
+  // Epoch of the latest background snapshot; bumped in its pause. Mutations preserve what they
+  // change (freeze) the first time they touch a client or product in a new epoch, see snapshot()
+  private transient volatile long snapshotEpoch;
+
+  private Warehouse() {
+    this(ClientList.instance(), ProductCatalog.instance(), IdService.instance(), 0);
+    indexDebtors();
+  }
+
+  /** Warehouse around loaded components; retrieve() installs it (and them) as the singletons. */
+  static Warehouse restored(ClientList clientList, ProductCatalog productCatalog, IdService idService, long journalSeq) {
+    Warehouse w = new Warehouse(clientList, productCatalog, idService, journalSeq);
+    w.indexDebtors();
+    w.indexBackorders();
+    return w;
+  }
+
+  /** Binds loaded waitlists to client positions and rebuilds the per-client backorder index. */
+  private void indexBackorders() {
+    for (Iterator<Product> it = productCatalog.getProducts(); it.hasNext();) {
+      Product p = it.next();
+      p.bindWaitlist(clientList);
+      p.getWaitQueue().forEach((seq, slot, qty, t) -> clientList.at(slot).addBackorder(backorderHandle(p, seq)));
+    }
+  }
+
+  /** Attaches every client's balance to a fresh debtor index. */
+  private void indexDebtors() {
+    debtors = new DebtorIndex();
+    for (Iterator<Client> it = clientList.getClients(); it.hasNext();) it.next().watchBalance(debtors);
+  }
+
+  // A backorder handle packs the product's catalog position with the entry's WaitQueue seq
+  private static final int HANDLE_SEQ_BITS = 40;
+  private static long backorderHandle(Product p, long seq) {
+    return ((long) p.getSlot() << HANDLE_SEQ_BITS) | seq;
+  }
+
+  private void install() {
+    clientList.install();
+    productCatalog.install();
+    idService.install();
+    exportGauges();
+    instance = this;
+  }
+
+  /** Points the warehouse gauges at this warehouse (the installed one). */
+  private void exportGauges() {
+    Metrics.gauge("warehouse_clients", "Registered clients", clientList::size);
+    Metrics.gauge("warehouse_products", "Products in the catalog", productCatalog::size);
+    Metrics.gauge("warehouse_waitlist_entries", "Open backorders over all product waitlists", () -> waitlistDepth(false));
+    Metrics.gauge("warehouse_waitlist_max_depth", "Open backorders on the longest product waitlist", () -> waitlistDepth(true));
+    Metrics.gauge("warehouse_debtors", "Clients with a positive balance", this::getDebtorCount);
+    Metrics.gauge("warehouse_receivables_cents", "Sum of outstanding balances", this::getReceivablesCents);
+  }
+
+  /** Sum (or largest) of the products' open waitlist entries; an unlocked catalog scan, so approximate under load. */
+  private long waitlistDepth(boolean largest) {
+    long total = 0, max = 0;
+    for (Iterator<Product> it = productCatalog.getProducts(); it.hasNext();) {
+      int n = it.next().getWaitQueue().liveSize();
+      total += n;
+      max = Math.max(max, n);
+    }
+    return largest ? max : total;
+  }
+
+  /** Also used to build the detached copy a background snapshot writes. */
+  private Warehouse(ClientList clientList, ProductCatalog productCatalog, IdService idService, long journalSeq) {
+    this.clientList = clientList;
+    this.productCatalog = productCatalog;
+    this.idService = idService;
+    this.journalSeq = journalSeq;
+  }
 
   // ============= Lookups using helpers =============
   public Client findClientById(String clientId) { return clientList.get(clientId); }
   public Product findProductById(String productId) { return productCatalog.get(productId); }
 
   // ============= Iterators for tests ====================
-  public Iterator getClients() { return clientList.getClients(); }
-  public Iterator getProducts() { return productCatalog.getProducts(); }
-  public Iterator getWishlistItems(String clientId) {
+  public Iterator<Client> getClients() { return clientList.getClients(); }
+  public Iterator<Product> getProducts() { return productCatalog.getProducts(); }
+  public Iterator<WishlistItem> getWishlistItems(String clientId) {
+    Client c = findClientById(clientId);
+    if (c == null) return Collections.emptyIterator();
+    int cs = clientLocks.stripeOf(clientId);
+    clientLocks.lock(cs);
+    try {
+      return c.getWishlist().asList().iterator(); // snapshot, safe after the lock is released
+    } finally {
+      clientLocks.unlock(cs);
+    }
+  }
+
+  // ============= Typed, resumable listings (see Page) =============
+  /** A page of clients in insertion order; token null for the first page, filter null for all. */
+  public Page<Client> getClients(String token, int pageSize, java.util.function.Predicate<? super Client> filter) {
+    return Page.read('c', token, pageSize, clientList.size(), clientList::at, filter);
+  }
+  /** A page of products in catalog order. */
+  public Page<Product> getProducts(String token, int pageSize, java.util.function.Predicate<? super Product> filter) {
+    return Page.read('p', token, pageSize, productCatalog.size(), productCatalog::at, filter);
+  }
+  /** A page of a client's invoices, oldest first; null if there is no such client. */
+  public Page<Invoice> getInvoices(String clientId, String token, int pageSize, java.util.function.Predicate<? super Invoice> filter) {
     Client c = findClientById(clientId);
-    return (c == null) ? Collections.emptyIterator() : c.getWishlist().getItems();
+    if (c == null) return null;
+    return Page.read('i', clientId, token, pageSize, c.getInvoiceCount(), c::getInvoice, filter);
   }
 
   // ============= Create ops (both addProduct overloads) =============
   public Client addClient(String name, String address) {
-    Client c = new Client(name, address);
-    clientList.insertClient(c);
+    long t0 = System.nanoTime();
+    Client c = addClient(new Client(name, address));
+    ADD_CLIENT_TIME.since(t0);
+    return c;
+  }
+  private Client addClient(Client c) {
+    // Built before the insert: a record the journal refuses must not leave an unjournaled client
+    Journal.Record r = Journal.Record.addClient(c.getId(), c.getName(), c.getAddress());
+    long seq;
+    int cs = clientLocks.stripeOf(c.getId());
+    clientLocks.lock(cs);
+    try {
+      if (!clientList.insertClient(c)) return null; // null on duplicate id
+      c.joinEpoch(snapshotEpoch);
+      c.watchBalance(debtors);
+      seq = log(r);
+    } finally {
+      clientLocks.unlock(cs);
+    }
+    awaitDurable(seq);
     return c;
   }
   public Product addProduct(String id, String name, double unitPrice, int qty) {
+    long t0 = System.nanoTime();
+    // Assign the id up front so the product's stripe can be locked before it becomes visible
+    if (id == null || id.isBlank()) id = productCatalog.nextFreeId();
     Product p = new Product(id, name, unitPrice, qty);
-    productCatalog.insertProduct(p);
+    Journal.Record r = Journal.Record.addProduct(id, name, p.getUnitPriceCents(), qty); // before the insert, as in addClient
+    long seq;
+    int ps = productLocks.stripeOf(id);
+    productLocks.lock(ps);
+    try {
+      if (!productCatalog.insertProduct(p)) return null; // null on duplicate id
+      p.joinEpoch(snapshotEpoch);
+      seq = log(r);
+    } finally {
+      productLocks.unlock(ps);
+    }
+    awaitDurable(seq);
+    ADD_PRODUCT_TIME.since(t0);
     return p;
   }
   public Product addProduct(String name, double unitPrice, int qty) {
@@ -92,10 +315,32 @@ public class Warehouse implements Serializable {
   // ============= Wishlist mutation ======================
   /** Returns the created WishlistItem, or null on failure. */
   public WishlistItem addToWishlist(String clientId, String productId, int qty) {
+    long t0 = System.nanoTime();
     Client c = findClientById(clientId);
-    Product p = findProductById(productId);
-    if (c == null || p == null || qty <= 0) return null;
-    return c.getWishlist().addOrUpdate(productId, qty);
+    if (c == null || qty <= 0) return null;
+    WishlistItem item;
+    long seq;
+    int cs = clientLocks.stripeOf(clientId);
+    clientLocks.lock(cs);
+    try {
+      // addProduct publishes and logs under the product stripe; holding it here too keeps
+      // ADD_TO_WISHLIST from getting a lower journal seq than the ADD_PRODUCT it depends on
+      int ps = productLocks.stripeOf(productId);
+      productLocks.lock(ps);
+      try {
+        if (findProductById(productId) == null) return null;
+        c.freezeWishlist(snapshotEpoch);
+        item = c.getWishlist().addOrUpdate(productId, qty);
+        seq = log(Journal.Record.addToWishlist(clientId, productId, qty));
+      } finally {
+        productLocks.unlock(ps);
+      }
+    } finally {
+      clientLocks.unlock(cs);
+    }
+    awaitDurable(seq);
+    WISHLIST_TIME.since(t0);
+    return item;
   }
 
   // =================== FINAL IMPLEMENTATION CORE ===================
@@ -106,31 +351,71 @@ public class Warehouse implements Serializable {
    * Clears the client's wishlist after processing.
    */
   public Invoice placeOrderFromWishlist(String clientId) {
+    long t0 = System.nanoTime();
+    Invoice inv = placeOrderFromWishlist(clientId, null, System.currentTimeMillis());
+    ORDER_TIME.since(t0);
+    return inv;
+  }
+
+  /** invoiceId is only supplied by journal replay; null means allocate a new one. */
+  private Invoice placeOrderFromWishlist(String clientId, String invoiceId, long time) {
     Client client = findClientById(clientId);
     if (client == null) return null;
-    Wishlist wl = client.getWishlist();
-    if (wl == null || wl.isEmpty()) return null;
+    Invoice result;
+    long seq;
 
-    Invoice inv = new Invoice(nextInvoiceId(), clientId);
+    // The client stripe keeps the wishlist stable while we work out which products to lock
+    int cs = clientLocks.stripeOf(clientId);
+    clientLocks.lock(cs);
+    try {
+      Wishlist wl = client.getWishlist();
+      if (wl == null || wl.isEmpty()) return null;
 
-    for (Iterator it = wl.getItems(); it.hasNext();) {
-      WishlistItem wi = (WishlistItem) it.next();
+      List<String> pids = new ArrayList<>(wl.size());
+      for (Iterator<WishlistItem> it = wl.getItems(); it.hasNext();) pids.add(it.next().getProductId());
+      int[] ps = productLocks.stripesFor(pids);
+      productLocks.lockAll(ps);
+      try {
+        if (invoiceId == null) invoiceId = nextInvoiceId();
+        result = placeOrderLocked(client, wl, new Invoice(invoiceId, clientId, time), time);
+        seq = log(Journal.Record.placeOrder(clientId, invoiceId, time));
+      } finally {
+        productLocks.unlockAll(ps);
+      }
+    } finally {
+      clientLocks.unlock(cs);
+    }
+    awaitDurable(seq);
+    return result;
+  }
+
+  /** Body of placeOrderFromWishlist; caller holds the client stripe and all wishlist product stripes. */
+  private Invoice placeOrderLocked(Client client, Wishlist wl, Invoice inv, long time) {
+    String clientId = client.getId();
+    long epoch = snapshotEpoch;
+    client.freezeWishlist(epoch);
+    client.freezeAccount(epoch);
+
+    for (Iterator<WishlistItem> it = wl.getItems(); it.hasNext();) {
+      WishlistItem wi = it.next();
       String pid = wi.getProductId();
       int wanted = wi.getQty();
       if (wanted <= 0) continue;
 
       Product p = findProductById(pid);
       if (p == null) continue;
+      p.freeze(epoch);
 
       int shipNow = Math.min(wanted, p.getOnHandQty());
       int WaitList = wanted - shipNow;
 
       if (shipNow > 0) {
         p.setOnHandQty(p.getOnHandQty() - shipNow);
-        inv.addLine(pid, shipNow, p.getUnitPrice());
+        inv.addLine(pid, shipNow, p.getUnitPriceCents());
       }
       if (WaitList > 0) {
-        p.enqueueWaitList(clientId, WaitList);
+        client.addBackorder(backorderHandle(p, p.enqueueWaitList(client, WaitList, time)));
+        BACKORDERS.inc();
       }
     }
 
@@ -138,120 +423,849 @@ public class Warehouse implements Serializable {
     wl.clear();
 
     if (!inv.getLines().isEmpty()) {
-      client.addInvoice(inv);
-      client.debit(inv.getTotal());
+      client.addInvoice(inv.seal());
+      client.debit(inv.getTotalCents());
+      countInvoice(inv);
       return inv;
     }
     return null; // nothing shipped now
   }
 
+  /**
+   * Places orders for many clients at once, with the same outcome as calling
+   * placeOrderFromWishlist for each client in iteration order (duplicates ignored):
+   * same stock split, waitlist order, invoice lines and invoice ids.
+   * The distinct products are numbered up front: each Product is looked up once, its stock is
+   * read once and written back once, and all locks are taken once for the whole batch. The
+   * per-client PLACE_ORDER records share one durable journal write (group commit), which is
+   * where nearly all of the gain over single placement comes from; see GroupCommitBenchmark.
+   * Returns the invoices that shipped something, in client order.
+   */
+  public List<Invoice> placeOrdersFromWishlists(Collection<String> clientIds) {
+    long t0 = System.nanoTime();
+    List<Client> clients = new ArrayList<>();
+    List<String> cids = new ArrayList<>();
+    for (String id : new LinkedHashSet<>(clientIds)) {
+      Client c = findClientById(id);
+      if (c != null) { clients.add(c); cids.add(id); }
+    }
+    if (clients.isEmpty()) return Collections.emptyList();
+    long time = System.currentTimeMillis();
+    List<Invoice> result = new ArrayList<>();
+    long seq = -1;
+
+    int[] cs = clientLocks.stripesFor(cids);
+    clientLocks.lockAll(cs);
+    try {
+      // Number the distinct products; line l of the batch wants product lineProduct[l]
+      Map<String, Integer> productIndex = new HashMap<>();
+      List<WishlistItem> lines = new ArrayList<>();
+      for (Client c : clients) {
+        for (Iterator<WishlistItem> it = c.getWishlist().getItems(); it.hasNext();) lines.add(it.next());
+      }
+      int[] lineProduct = new int[lines.size()];
+      for (int l = 0; l < lineProduct.length; l++) {
+        Integer k = productIndex.putIfAbsent(lines.get(l).getProductId(), productIndex.size());
+        lineProduct[l] = (k == null) ? productIndex.size() - 1 : k;
+      }
+
+      int[] ps = productLocks.stripesFor(productIndex.keySet());
+      productLocks.lockAll(ps);
+      try {
+        long epoch = snapshotEpoch;
+        Product[] products = new Product[productIndex.size()];
+        int[] stock = new int[products.length];
+        for (Map.Entry<String, Integer> e : productIndex.entrySet()) {
+          Product p = products[e.getValue()] = findProductById(e.getKey());
+          if (p == null) continue;
+          p.freeze(epoch);
+          stock[e.getValue()] = p.getOnHandQty();
+        }
+
+        // Clients in order, so stock, waitlists and invoice ids go exactly as sequential placement
+        int l = 0;
+        for (Client client : clients) {
+          Wishlist wl = client.getWishlist();
+          if (wl.isEmpty()) continue; // sequential placement returns early, no id used
+          client.freezeWishlist(epoch);
+          client.freezeAccount(epoch);
+          Invoice inv = new Invoice(nextInvoiceId(), client.getId(), time);
+          for (int end = l + wl.size(); l < end; l++) {
+            int k = lineProduct[l];
+            Product p = products[k];
+            int wanted = lines.get(l).getQty();
+            if (p == null || wanted <= 0) continue;
+            int shipNow = Math.min(wanted, stock[k]);
+            if (shipNow > 0) {
+              stock[k] -= shipNow;
+              inv.addLine(p.getId(), shipNow, p.getUnitPriceCents());
+            }
+            if (wanted > shipNow) {
+              client.addBackorder(backorderHandle(p, p.enqueueWaitList(client, wanted - shipNow, time)));
+              BACKORDERS.inc();
+            }
+          }
+          wl.clear();
+          if (!inv.getLines().isEmpty()) {
+            client.addInvoice(inv.seal());
+            client.debit(inv.getTotalCents());
+            countInvoice(inv);
+            result.add(inv);
+          }
+          seq = log(Journal.Record.placeOrder(client.getId(), inv.getId(), time)); // replays as a single order
+        }
+        for (int k = 0; k < products.length; k++) {
+          if (products[k] != null) products[k].setOnHandQty(stock[k]);
+        }
+      } finally {
+        productLocks.unlockAll(ps);
+      }
+    } finally {
+      clientLocks.unlockAll(cs);
+    }
+    awaitDurable(seq);
+    ORDER_BATCH_TIME.since(t0);
+    return result;
+  }
+
   /** Receive shipment for a product: fill WaitLists FIFO first, generating invoices per client; leftover goes to stock. */
   public List<Invoice> receiveShipment(String productId, int qtyReceived) {
+    long t0 = System.nanoTime();
+    List<Invoice> generated = receiveShipment(productId, qtyReceived, null, System.currentTimeMillis());
+    SHIPMENT_TIME.since(t0);
+    return generated;
+  }
+
+  /** invoiceIds is only supplied by journal replay; null means allocate new ones. */
+  private List<Invoice> receiveShipment(String productId, int qtyReceived, Iterator<String> invoiceIds, long time) {
     Product p = findProductById(productId);
     if (p == null || qtyReceived <= 0) return Collections.emptyList();
 
-    int remaining = qtyReceived;
-    List<Invoice> generated = new ArrayList<>();
-    Deque<WaitList> q = p.getWaitlist();
-
-    while (remaining > 0 && !q.isEmpty()) {
-      WaitList bo = q.peekFirst();
-      int fulfill = Math.min(remaining, bo.getQty());
-      if (fulfill <= 0) break;
+    List<Invoice> generated;
+    long seq;
+    int ps = productLocks.stripeOf(productId);
+    productLocks.lock(ps);
+    try {
+      generated = receiveShipmentLocked(p, qtyReceived, invoiceIds, time);
+      String[] ids = new String[generated.size()];
+      for (int i = 0; i < ids.length; i++) ids[i] = generated.get(i).getId();
+      seq = log(Journal.Record.receiveShipment(productId, qtyReceived, ids, time));
+    } finally {
+      productLocks.unlock(ps);
+    }
+    awaitDurable(seq);
+    return generated;
+  }
 
-      Invoice inv = new Invoice(nextInvoiceId(), bo.getClientId());
-      inv.addLine(productId, fulfill, p.getUnitPrice());
-      generated.add(inv);
+  /**
+   * Receives a whole truckload (product id -> quantity). Each product's waitlist is filled under
+   * its own stripe, in parallel across products (one virtual thread per line, joined before
+   * returning); client balances stay exact because debits take
+   * the Client monitor. Returns the generated invoices per client (clients in first-invoiced
+   * order, each client's invoices in manifest order). Unknown products and non-positive
+   * quantities are skipped.
+   */
+  public Map<String, List<Invoice>> receiveShipments(Map<String, Integer> manifest) {
+    long t0 = System.nanoTime();
+    List<Map.Entry<String, Integer>> lines = new ArrayList<>(manifest.entrySet());
+    long time = System.currentTimeMillis();
+    List<List<Invoice>> perProduct = new ArrayList<>(Collections.nCopies(lines.size(), null));
+    long[] seqs = new long[lines.size()];
 
-      Client c = findClientById(bo.getClientId());
-      if (c != null) {
-        c.addInvoice(inv);
-        c.debit(inv.getTotal());
+    // A virtual thread per line, not the common ForkJoinPool: lines block on product stripes
+    // (held by sessions, a batch order or a snapshot's lockEverything) and that must not stall
+    // the shared pool
+    List<Future<?>> done = new ArrayList<>(lines.size());
+    try (ExecutorService receivers = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int line = 0; line < lines.size(); line++) {
+        final int i = line;
+        done.add(receivers.submit(() -> {
+          String productId = lines.get(i).getKey();
+          Integer qty = lines.get(i).getValue();
+          Product p = findProductById(productId);
+          if (p == null || qty == null || qty <= 0) return;
+          int ps = productLocks.stripeOf(productId);
+          productLocks.lock(ps);
+          try {
+            List<Invoice> generated = receiveShipmentLocked(p, qty, null, time);
+            String[] ids = new String[generated.size()];
+            for (int k = 0; k < ids.length; k++) ids[k] = generated.get(k).getId();
+            seqs[i] = log(Journal.Record.receiveShipment(productId, qty, ids, time));
+            perProduct.set(i, generated);
+          } finally {
+            productLocks.unlock(ps);
+          }
+        }));
       }
+    } // close() waits for every line
+    for (Future<?> f : done) {
+      if (f.state() != Future.State.FAILED) continue;
+      Throwable t = f.exceptionNow();
+      if (t instanceof RuntimeException) throw (RuntimeException) t;
+      if (t instanceof Error) throw (Error) t;
+      throw new IllegalStateException(t);
+    }
+    long last = 0;
+    for (long s : seqs) last = Math.max(last, s);
+    awaitDurable(last); // one wait for the whole truck
+
+    Map<String, List<Invoice>> byClient = new LinkedHashMap<>();
+    for (List<Invoice> generated : perProduct) {
+      if (generated == null) continue;
+      for (Invoice inv : generated) byClient.computeIfAbsent(inv.getClientId(), k -> new ArrayList<>()).add(inv);
+    }
+    SHIPMENT_BATCH_TIME.since(t0);
+    return byClient;
+  }
+
+  /**
+   * Body of receiveShipment; caller holds the product's stripe lock. The waitlist's prefix sums
+   * give the number of entries the shipment fills completely in O(log n); their invoice ids are
+   * reserved as one block and they leave the queue in one step. At most one more entry is then
+   * filled in part.
+   */
+  private List<Invoice> receiveShipmentLocked(Product p, int qtyReceived, Iterator<String> invoiceIds, long time) {
+    p.freeze(snapshotEpoch);
+    WaitQueue q = p.getWaitQueue();
+    int full = q.fullFills(qtyReceived);
+    int remaining = (int) (qtyReceived - q.headSum(full));
+    boolean partial = remaining > 0 && q.depth() > full;
+    int count = q.openAmong(full) + (partial ? 1 : 0);
+    List<Invoice> generated = new ArrayList<>(count);
+    long first = (invoiceIds == null && count > 0) ? idService.reserve(IdService.Sequence.INVOICE, count) : 0;
 
-      bo.consume(fulfill);
-      remaining -= fulfill;
-      if (bo.cleared()) q.removeFirst();
+    q.drainHead(full, (seq, slot, qty, created) -> {
+      Client c = clientList.at(slot);
+      generated.add(shipBackorder(p, c, qty, invoiceId(invoiceIds, first, generated.size()), time));
+      c.removeBackorder(backorderHandle(p, seq));
+    });
+    if (partial && q.skipCancelled()) {
+      Client c = clientList.at(q.headClient());
+      generated.add(shipBackorder(p, c, remaining, invoiceId(invoiceIds, first, generated.size()), time));
+      q.consumeHead(remaining);
+      remaining = 0;
     }
 
     if (remaining > 0) p.setOnHandQty(p.getOnHandQty() + remaining);
     return generated;
   }
 
-  /** Record a payment from a client. */
+  /** Replayed id if there is one, else the k-th id of the reserved block. */
+  private String invoiceId(Iterator<String> invoiceIds, long first, int k) {
+    if (invoiceIds == null) return IdService.Sequence.INVOICE.getPrefix() + (first + k);
+    return invoiceIds.hasNext() ? invoiceIds.next() : nextInvoiceId();
+  }
+
+  private Invoice shipBackorder(Product p, Client c, int qty, String invoiceId, long time) {
+    Invoice inv = new Invoice(invoiceId, c.getId(), time);
+    inv.addLine(p.getId(), qty, p.getUnitPriceCents());
+    c.freezeAccount(snapshotEpoch);
+    c.addInvoice(inv.seal());
+    c.debit(inv.getTotalCents());
+    countInvoice(inv);
+    return inv;
+  }
+
+  private static void countInvoice(Invoice inv) {
+    INVOICES.inc();
+    INVOICED_CENTS.add(inv.getTotalCents());
+  }
+
+  /** A client's open backorders (oldest first), from the per-client index; no catalog scan. */
+  public List<WaitList> getBackorders(String clientId) {
+    Client c = findClientById(clientId);
+    if (c == null) return Collections.emptyList();
+    List<WaitList> open = new ArrayList<>();
+    for (long h : c.backorderHandles()) {
+      Product p = productCatalog.at((int) (h >>> HANDLE_SEQ_BITS));
+      long seq = h & ((1L << HANDLE_SEQ_BITS) - 1);
+      int ps = productLocks.stripeOf(p.getId());
+      productLocks.lock(ps);
+      try {
+        WaitQueue q = p.getWaitQueue();
+        if (q.contains(seq)) open.add(new WaitList(clientId, p.getId(), q.qtyOf(seq), q.createdAtOf(seq), seq));
+      } finally {
+        productLocks.unlock(ps);
+      }
+    }
+    open.sort(Comparator.comparingLong(WaitList::getCreatedAt).thenComparing(WaitList::getProductId));
+    return open;
+  }
+
+  /**
+   * Up to limit open entries of a product's waitlist, oldest first, starting after the entry
+   * with sequence number afterSeq (-1 for the head); resume from the last entry's getSeq().
+   * Only those entries are read under the product's stripe. Null if there is no such product.
+   */
+  public List<WaitList> getWaitlist(String productId, long afterSeq, int limit) {
+    Product p = findProductById(productId);
+    if (p == null) return null;
+    List<WaitList> page = new ArrayList<>(Math.min(limit, 1024));
+    int ps = productLocks.stripeOf(productId);
+    productLocks.lock(ps);
+    try {
+      p.getWaitQueue().forEachAfter(afterSeq,
+          (seq, slot, qty, t) -> page.add(new WaitList(clientList.at(slot).getId(), productId, qty, t, seq)),
+          () -> page.size() >= limit);
+    } finally {
+      productLocks.unlock(ps);
+    }
+    return page;
+  }
+
+  /**
+   * Cancels one open backorder in O(1): the entry is marked and skipped, the rest of the
+   * product's waitlist keeps its FIFO order. False if it was already filled or cancelled.
+   */
+  public boolean cancelBackorder(String clientId, WaitList entry) {
+    long t0 = System.nanoTime();
+    Client c = findClientById(clientId);
+    if (c == null || entry == null || !clientId.equals(entry.getClientId())) return false;
+    Product p = findProductById(entry.getProductId());
+    if (p == null) return false;
+    long seq;
+    int ps = productLocks.stripeOf(p.getId());
+    productLocks.lock(ps);
+    try {
+      WaitQueue q = p.getWaitQueue();
+      if (q.clientOf(entry.getSeq()) != c.getSlot()) return false; // filled, cancelled or not this client's
+      int qty = q.qtyOf(entry.getSeq());
+      p.freeze(snapshotEpoch);
+      q.cancel(entry.getSeq());
+      c.removeBackorder(backorderHandle(p, entry.getSeq()));
+      seq = log(Journal.Record.cancelBackorder(clientId, p.getId(), qty, entry.getCreatedAt()));
+    } finally {
+      productLocks.unlock(ps);
+    }
+    awaitDurable(seq);
+    CANCEL_TIME.since(t0);
+    return true;
+  }
+
+  /** Record a payment from a client. Only takes the client's stripe and monitor. */
   public boolean recordPayment(String clientId, double amount) {
-    if (amount <= 0) return false;
+    long t0 = System.nanoTime();
+    long cents = Money.cents(amount);
+    if (cents <= 0) return false;
     Client c = findClientById(clientId);
     if (c == null) return false;
-    c.credit(amount);
+    long seq;
+    int cs = clientLocks.stripeOf(clientId);
+    clientLocks.lock(cs);
+    try {
+      c.freezeAccount(snapshotEpoch);
+      c.credit(cents);
+      seq = log(Journal.Record.recordPayment(clientId, cents));
+    } finally {
+      clientLocks.unlock(cs);
+    }
+    awaitDurable(seq);
+    PAYMENT_TIME.since(t0);
     return true;
   }
 
   // ========================= Reports =========================
-  public void printAllClients() {
-    for (Iterator it = clientList.getClients(); it.hasNext();) {
-      Client c = (Client) it.next();
-      System.out.printf("%s  %-20s  %-20s  balance: $%.2f%n",
-          c.getId(), c.getName(), c.getAddress(), c.getBalance());
+  /** Clients owing money, largest balance first; walks only the debtors (see DebtorIndex). */
+  public Iterable<DebtorIndex.Debtor> getDebtors() { return debtors.debtors(); }
+  /** The n largest debtors. */
+  public List<DebtorIndex.Debtor> getTopDebtors(int n) { return debtors.top(n); }
+  /** Sum of all outstanding balances, in cents. */
+  public long getReceivablesCents() { return debtors.getReceivablesCents(); }
+  public int getDebtorCount() { return debtors.getDebtorCount(); }
+
+  // Listings stream through a ReportWriter (buffered, precompiled rows, paging, cancellation);
+  // the print* methods send a whole listing to System.out
+  private static final ReportWriter.Format CLIENT_ROW = ReportWriter.Format.compile("client", "%s  %-20s  %-20s  balance: $%.2f%n");
+  private static final ReportWriter.Format PRODUCT_ROW = ReportWriter.Format.compile("product", "%s  %-20s  price:$%.2f  qty:%d%n");
+  private static final ReportWriter.Format PRICE_ROW = ReportWriter.Format.compile("price", "%s  %-20s  $%.2f%n");
+  private static final ReportWriter.Format ENTRY_ROW = ReportWriter.Format.compile("entry", "  %s x %d%n");
+  // Same text as Invoice.toString()
+  private static final ReportWriter.Format INVOICE_ROW = ReportWriter.Format.compile("invoice", "%s  %tF  $%.2f%n");
+  private static final ReportWriter.Format INVOICE_LINE = ReportWriter.Format.compile("line", "  %s x %d @ %.2f = %.2f\n");
+
+  public void printAllClients() { try (ReportWriter w = ReportWriter.toStdout()) { reportClients(w); } }
+  public void printAllProducts() { try (ReportWriter w = ReportWriter.toStdout()) { reportProducts(w); } }
+  public void printWishlist(String clientId) { try (ReportWriter w = ReportWriter.toStdout()) { reportWishlist(clientId, w); } }
+  public void printWaitlist(String productId) { try (ReportWriter w = ReportWriter.toStdout()) { reportWaitlist(productId, w); } }
+  public void printInvoices(String clientId) { try (ReportWriter w = ReportWriter.toStdout()) { reportInvoices(clientId, w); } }
+
+  /** One row per client, in client order; pages start directly at the offset. */
+  public void reportClients(ReportWriter w) {
+    int n = clientList.size();
+    int from = (int) Math.min(w.getOffset(), n);
+    w.skip(from);
+    for (int i = from; i < n && !w.isDone(); i++) {
+      Client c = clientList.at(i);
+      w.row(CLIENT_ROW).s(c.getId()).s(c.getName()).s(c.getAddress()).money(c.getBalanceCents()).end();
+    }
+  }
+
+  /** One row per product with price and stock, in catalog order. */
+  public void reportProducts(ReportWriter w) {
+    int n = productCatalog.size();
+    int from = (int) Math.min(w.getOffset(), n);
+    w.skip(from);
+    for (int i = from; i < n && !w.isDone(); i++) {
+      Product p = productCatalog.at(i);
+      w.row(PRODUCT_ROW).s(p.getId()).s(p.getName()).money(p.getUnitPriceCents()).d(p.getOnHandQty()).end();
     }
   }
-  public void printAllProducts() {
-    for (Iterator it = productCatalog.getProducts(); it.hasNext();) {
-      Product p = (Product) it.next();
-      System.out.printf("%s  %-20s  price:$%.2f  qty:%d%n",
-          p.getId(), p.getName(), p.getUnitPrice(), p.getOnHandQty());
+
+  /** The client-facing catalog: id, name and price. */
+  public void reportPriceList(ReportWriter w) {
+    int n = productCatalog.size();
+    if (n == 0) { w.line("No products available."); return; }
+    int from = (int) Math.min(w.getOffset(), n);
+    w.skip(from);
+    for (int i = from; i < n && !w.isDone(); i++) {
+      Product p = productCatalog.at(i);
+      w.row(PRICE_ROW).s(p.getId()).s(p.getName()).money(p.getUnitPriceCents()).end();
     }
   }
-  public void printWishlist(String clientId) {
+
+  public void reportWishlist(String clientId, ReportWriter w) {
     Client c = findClientById(clientId);
-    if (c == null) { System.out.println("No such client"); return; }
-    System.out.println("Wishlist for " + clientId + ":");
-    Wishlist wl = c.getWishlist();
-    for (Iterator it = wl.getItems(); it.hasNext();) {
-      WishlistItem wi = (WishlistItem) it.next();
-      System.out.printf("  %s x %d%n", wi.getProductId(), wi.getQty());
+    if (c == null) { w.line("No such client"); return; }
+    w.line("Wishlist for " + clientId + ":");
+    for (Iterator<WishlistItem> it = getWishlistItems(clientId); it.hasNext() && !w.isDone();) {
+      WishlistItem wi = it.next();
+      w.row(ENTRY_ROW).s(wi.getProductId()).d(wi.getQty()).end();
     }
   }
-  public void printWaitlist(String productId) {
+
+  /** Oldest first. The queue is copied under the product's stripe, then written unlocked. */
+  public void reportWaitlist(String productId, ReportWriter w) {
     Product p = findProductById(productId);
-    if (p == null) { System.out.println("No such product"); return; }
-    System.out.println("Waitlist for " + productId + ":");
-    for (WaitList bo : p.getWaitlist()) {
-      System.out.printf("  %s x %d%n", bo.getClientId(), bo.getQty());
+    if (p == null) { w.line("No such product"); return; }
+    w.line("Waitlist for " + productId + ":");
+    WaitQueue q;
+    int ps = productLocks.stripeOf(productId);
+    productLocks.lock(ps);
+    try {
+      q = p.getWaitQueue().snapshotCopy();
+    } finally {
+      productLocks.unlock(ps);
     }
+    q.forEach((seq, slot, qty, t) -> w.row(ENTRY_ROW).s(clientList.at(slot).getId()).d(qty).end(), w::isDone);
   }
-  public void printInvoices(String clientId) {
+
+  /** One row per invoice (its lines included), oldest first. */
+  public void reportInvoices(String clientId, ReportWriter w) {
     Client c = findClientById(clientId);
-    if (c == null) { System.out.println("No such client"); return; }
-    System.out.println("Invoices for " + clientId + ":");
-    for (Invoice inv : c.getInvoices()) System.out.print(inv.toString());
+    if (c == null) { w.line("No such client"); return; }
+    w.line("Invoices for " + clientId + ":");
+    int n = c.getInvoiceCount();
+    int from = (int) Math.min(w.getOffset(), n);
+    w.skip(from);
+    for (int i = from; i < n && !w.isDone(); i++) reportInvoice(c.getInvoice(i), w);
+  }
+
+  /** An invoice as Invoice.toString() prints it, as one row. */
+  public static void reportInvoice(Invoice inv, ReportWriter w) {
+    w.row(INVOICE_ROW).s(inv.getId()).date(inv.getCreated().getTime()).money(inv.getTotalCents()).end();
+    for (InvoiceLine l : inv.getLines()) {
+      w.more(INVOICE_LINE).s(l.getProductId()).d(l.getQty()).money(l.getUnitPriceCents()).money(l.getLineTotalCents()).end();
+    }
   }
 
   // ===================== Persistence (static) =====================
-  private static final String DATA_FILE = "WarehouseData.ser";
+  private static final String DATA_DIR = "WarehouseData"; // sharded snapshot, see ShardedSnapshot
+  private static final String DATA_FILE = "WarehouseData.bin"; // single-file WarehouseCodec snapshots
+  private static final String LEGACY_DATA_FILE = "WarehouseData.ser"; // ObjectOutputStream snapshots
+  private static final String JOURNAL_FILE = Journal.DEFAULT_FILE;
+
+  // Directory the files above live in: -Dwarehouse.dir=..., or setDataDirectory(); default the working directory
+  private static volatile Path dataDir = Paths.get(System.getProperty("warehouse.dir", ""));
 
+  /** Moves save()/retrieve() to another directory; call before the journal is attached (first save/retrieve). */
+  public static void setDataDirectory(Path dir) { dataDir = dir; }
+  public static Path getDataDirectory() { return dataDir; }
+
+  private static Path dataPath(String name) { return dataDir.resolve(name); }
+
+  // Fold the journal into a fresh snapshot once it grows past this size
+  private static final long COMPACT_BYTES = 64L << 20;
+  private static final long COMPACT_CHECK_SECONDS = 30;
+  private static ScheduledExecutorService compactor;
+  private static boolean saveOnExit; // shutdown hook registered by open()
+
+  // Background snapshot writer; one snapshot runs at a time
+  private static final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "warehouse-snapshot");
+    t.setDaemon(true);
+    return t;
+  });
+  private static final Semaphore snapshotPermit = new Semaphore(1);
+
+  /** What one snapshot cost: the pause seen by sessions, the background write time and the file size. */
+  public static class SnapshotStats {
+    private final long journalSeq;
+    private final long pauseNanos;
+    private final long writeNanos;
+    private final long bytes;
+    SnapshotStats(long journalSeq, long pauseNanos, long writeNanos, long bytes) {
+      this.journalSeq = journalSeq; this.pauseNanos = pauseNanos; this.writeNanos = writeNanos; this.bytes = bytes;
+    }
+    public long getJournalSeq() { return journalSeq; }
+    public long getPauseNanos() { return pauseNanos; }
+    public long getWriteNanos() { return writeNanos; }
+    public long getBytes() { return bytes; }
+    @Override public String toString() {
+      return String.format("snapshot seq=%d pause=%.3fms write=%.1fms size=%,d bytes",
+          journalSeq, pauseNanos / 1e6, writeNanos / 1e6, bytes);
+    }
+  }
+
+  /**
+   * Writes a snapshot of the whole warehouse and drops the journal records it now covers.
+   * Blocks until the snapshot is on disk. Also attaches the journal, so later changes are logged.
+   */
   public static boolean save() {
-    try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(DATA_FILE))) {
-      out.writeObject(instance());
-      return true;
-    } catch (IOException e) {
-      e.printStackTrace();
+    long t0 = System.nanoTime();
+    try {
+      boolean saved = instance().snapshot().get() != null;
+      SAVE_TIME.since(t0);
+      return saved;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
       return false;
+    } catch (ExecutionException e) {
+      e.getCause().printStackTrace();
+      return false;
+    }
+  }
+
+  /**
+   * Point-in-time snapshot without stopping order traffic for the write.
+   * Sessions are paused only while the snapshot epoch is bumped, the client and product counts
+   * and id marks are read and the journal is rotated: O(stripes), whatever the size of the data.
+   * The point-in-time copy is then built on a background thread (see snapshotAt), with copy-on-
+   * write: a session changing a client or product first in the new epoch preserves its state as
+   * of the pause (freeze), and the writer takes that instead of the live one. Serialization and
+   * fsync follow on the same thread. The returned future completes with the snapshot's stats.
+   */
+  public Future<SnapshotStats> snapshot() {
+    snapshotPermit.acquireUninterruptibly();
+    long start = System.nanoTime();
+    long epoch, rotatedSeq;
+    int clients, products;
+    IdService ids;
+    Journal j;
+    lockEverything();
+    try {
+      if (journal == null) attachJournal(false);
+      j = journal;
+      epoch = ++snapshotEpoch;
+      clients = clientList.size();
+      products = productCatalog.size();
+      ids = idService.snapshotCopy();
+      rotatedSeq = j.rotate();
+    } catch (IOException | RuntimeException e) {
+      snapshotPermit.release();
+      CompletableFuture<SnapshotStats> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
+    } finally {
+      unlockEverything();
+    }
+    long pause = System.nanoTime() - start;
+    SNAPSHOT_PAUSE_TIME.record(pause);
+
+    return snapshotWriter.submit(() -> {
+      try {
+        long t0 = System.nanoTime();
+        Warehouse copy = snapshotAt(epoch, clients, products, ids, rotatedSeq);
+        long bytes = writeSnapshot(copy);
+        j.dropRotated(); // every rotated record is now covered by the snapshot
+        long write = System.nanoTime() - t0;
+        SNAPSHOT_WRITE_TIME.record(write);
+        return new SnapshotStats(rotatedSeq, pause, write, bytes);
+      } finally {
+        snapshotPermit.release();
+      }
+    });
+  }
+
+  /**
+   * Background half of snapshot(): a detached copy of the first clients / products as of the
+   * pause of the given epoch. Each object is read under the lock that guards the part being
+   * read, one at a time, so sessions only ever wait for a single copy.
+   */
+  private Warehouse snapshotAt(long epoch, int clients, int products, IdService ids, long journalSeq) {
+    ClientList clientCopy = ClientList.detached();
+    for (int i = 0; i < clients; i++) {
+      Client c = clientList.at(i);
+      Wishlist wl;
+      int cs = clientLocks.stripeOf(c.getId());
+      clientLocks.lock(cs);
+      try {
+        wl = c.wishlistAt(epoch);
+      } finally {
+        clientLocks.unlock(cs);
+      }
+      clientCopy.restoreClient(c.snapshotCopy(epoch, wl));
+    }
+    ProductCatalog productCopy = ProductCatalog.detached();
+    for (int i = 0; i < products; i++) {
+      Product p = productCatalog.at(i);
+      int ps = productLocks.stripeOf(p.getId());
+      productLocks.lock(ps);
+      try {
+        productCopy.restoreProduct(p.snapshotCopy(epoch));
+      } finally {
+        productLocks.unlock(ps);
+      }
+    }
+    return new Warehouse(clientCopy, productCopy, ids, journalSeq);
+  }
+
+  /**
+   * Writes the shards into a temp directory (fsynced), then swaps it in:
+   * current -> .old, .tmp -> current, delete .old. A crash mid-swap leaves .old for retrieve().
+   * Writing the shards decodes every history still deferred by retrieve(true) into its live
+   * client, which releases the old invoice shards before they are moved (see Client.snapshotCopy).
+   * Returns the total size.
+   */
+  private static long writeSnapshot(Warehouse w) throws IOException {
+    Path dir = dataPath(DATA_DIR), tmp = dataPath(DATA_DIR + ".tmp"), old = dataPath(DATA_DIR + ".old");
+    deleteTree(tmp);
+    long bytes = ShardedSnapshot.write(w, tmp); // must be durable before the journal is dropped
+    if (Files.exists(dir)) {
+      deleteTree(old);
+      Files.move(dir, old, StandardCopyOption.ATOMIC_MOVE);
     }
+    Files.move(tmp, dir, StandardCopyOption.ATOMIC_MOVE);
+    ShardedSnapshot.syncDirectory(dir.toAbsolutePath().getParent());
+    deleteTree(old);
+    Files.deleteIfExists(dataPath(DATA_FILE)); // superseded single-file snapshot
+    return bytes;
   }
 
+  private static void deleteTree(Path dir) throws IOException {
+    if (!Files.exists(dir)) return;
+    try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+      for (Path p : (Iterable<Path>) files::iterator) Files.delete(p);
+    }
+    Files.delete(dir);
+  }
+
+  /**
+   * Startup for the entry points (Main, WarehouseServer, WarehouseHttpApi): retrieve() the saved
+   * warehouse, or start an empty one and save() it when nothing has been saved yet, so every change
+   * from here on is journaled. Also saves on JVM exit. Throws if saved data exists but cannot be
+   * loaded, rather than starting empty and writing over it.
+   */
+  public static Warehouse open() {
+    return open(false);
+  }
+
+  /** As open(), with retrieve(lazyInvoices) (the --fast-start option of the entry points). */
+  public static Warehouse open(boolean lazyInvoices) {
+    Warehouse w;
+    if (hasSavedData()) {
+      w = retrieve(lazyInvoices);
+      if (w == null) throw new IllegalStateException("cannot load the saved warehouse (see the error above)");
+    } else {
+      w = instance();
+      if (!save()) throw new IllegalStateException("cannot write " + dataPath(DATA_DIR));
+    }
+    registerSaveOnExit();
+    return w;
+  }
+
+  /** One shutdown hook per JVM, however often open() is called. */
+  private static synchronized void registerSaveOnExit() {
+    if (saveOnExit) return;
+    Runtime.getRuntime().addShutdownHook(new Thread(Warehouse::save, "warehouse-save"));
+    saveOnExit = true;
+  }
+
+  /** True if there is a snapshot (any format) or a journal to load. */
+  private static boolean hasSavedData() {
+    for (String f : new String[] { DATA_DIR, DATA_DIR + ".old", DATA_FILE, LEGACY_DATA_FILE, JOURNAL_FILE }) {
+      if (Files.exists(dataPath(f))) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Loads the latest snapshot, replays the journal records written after it and attaches the journal.
+   * With nothing saved at all this is a fresh, empty warehouse.
+   */
   public static Warehouse retrieve() {
-    try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(DATA_FILE))) {
-      Warehouse loaded = (Warehouse) in.readObject();
-      instance = loaded; // reset singleton to loaded instance
-      return loaded;
-    } catch (IOException | ClassNotFoundException e) {
+    return retrieve(false);
+  }
+
+  /**
+   * Fast-start variant: with lazyInvoices the snapshot's invoice shards stay on disk and each
+   * client's history is decoded on its first getInvoices() (or by the next snapshot), so logins
+   * can be served right away.
+   */
+  public static Warehouse retrieve(boolean lazyInvoices) {
+    long t0 = System.nanoTime();
+    Warehouse loaded;
+    Path dir = dataPath(DATA_DIR);
+    if (!Files.exists(dir) && Files.exists(dataPath(DATA_DIR + ".old"))) dir = dataPath(DATA_DIR + ".old"); // crashed mid-swap
+    if (Files.exists(dir)) {
+      try {
+        loaded = ShardedSnapshot.read(dir, lazyInvoices);
+      } catch (IOException e) {
+        e.printStackTrace();
+        return null;
+      }
+    } else if (Files.exists(dataPath(DATA_FILE))) {
+      try (InputStream in = new BufferedInputStream(Files.newInputStream(dataPath(DATA_FILE)), 1 << 16)) {
+        loaded = WarehouseCodec.read(in);
+      } catch (IOException e) {
+        e.printStackTrace();
+        return null;
+      }
+    } else if (Files.exists(dataPath(LEGACY_DATA_FILE))) {
+      try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(dataPath(LEGACY_DATA_FILE)), 1 << 16))) {
+        loaded = (Warehouse) in.readObject();
+      } catch (IOException | ClassNotFoundException e) {
+        e.printStackTrace();
+        return null;
+      }
+    } else {
+      loaded = instance(); // journal only (crash before the first snapshot) or nothing saved: start fresh
+    }
+    Warehouse previous = instance;
+    if (previous != null && previous != loaded) previous.closeJournal();
+    loaded.install(); // reset singletons to the loaded instance
+    try {
+      loaded.attachJournal(true);
+    } catch (IOException e) {
       e.printStackTrace();
       return null;
     }
+    RETRIEVE_TIME.since(t0);
+    return loaded;
+  }
+
+  private void attachJournal(boolean replay) throws IOException {
+    if (journal != null) return;
+    journal = Journal.open(dataPath(JOURNAL_FILE), journalSeq, replay ? this::apply : r -> { });
+    if (!replay) journal.reset(); // a fresh snapshot was just written; older records are obsolete
+    startCompactor();
+  }
+
+  /** Logs this (detached) warehouse to its own fresh journal; for benchmarks, no replay or compaction. */
+  void journalTo(Path file) throws IOException {
+    journal = Journal.open(file, journalSeq, r -> { });
+    journal.reset();
+  }
+
+  void closeJournal() {
+    if (journal == null) return;
+    try { journal.close(); } catch (IOException e) { e.printStackTrace(); }
+    journal = null;
+  }
+
+  /** Re-executes one journaled mutation (journal is not attached yet, so nothing is re-logged). */
+  private void apply(Journal.Record r) {
+    switch (r.op) {
+      case ADD_CLIENT:
+        idService.advancePast(IdService.Sequence.CLIENT, r.a);
+        addClient(new Client(r.a, r.b, r.c));
+        break;
+      case ADD_PRODUCT:
+        idService.advancePast(IdService.Sequence.PRODUCT, r.a);
+        addProduct(r.a, r.b, Money.toDollars(r.cents), r.qty);
+        break;
+      case ADD_TO_WISHLIST:
+        addToWishlist(r.a, r.b, r.qty);
+        break;
+      case PLACE_ORDER:
+        idService.advancePast(IdService.Sequence.INVOICE, r.ids[0]);
+        placeOrderFromWishlist(r.a, r.ids[0], r.time);
+        break;
+      case RECEIVE_SHIPMENT:
+        for (String id : r.ids) idService.advancePast(IdService.Sequence.INVOICE, id);
+        receiveShipment(r.a, r.qty, Arrays.asList(r.ids).iterator(), r.time);
+        break;
+      case RECORD_PAYMENT:
+        recordPayment(r.a, Money.toDollars(r.cents));
+        break;
+      case CANCEL_BACKORDER:
+        for (WaitList bo : getBackorders(r.a)) {
+          if (bo.getProductId().equals(r.b) && bo.getCreatedAt() == r.time && bo.getQty() == r.qty) {
+            cancelBackorder(r.a, bo);
+            break;
+          }
+        }
+        break;
+    }
+  }
+
+  private long log(Journal.Record r) {
+    Journal j = journal;
+    return (j == null) ? 0 : j.append(r);
+  }
+
+  /** Called after locks are released so sessions share fsyncs instead of queuing behind them. */
+  private void awaitDurable(long seq) {
+    Journal j = journal;
+    if (j != null && seq > 0) j.awaitDurable(seq);
+  }
+
+  private static synchronized void startCompactor() {
+    if (compactor != null) return;
+    compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "warehouse-compactor");
+      t.setDaemon(true);
+      return t;
+    });
+    compactor.scheduleWithFixedDelay(() -> {
+      Journal j = instance().journal;
+      if (j == null || j.size() <= COMPACT_BYTES) return;
+      try {
+        System.err.println("[compaction] " + instance().snapshot().get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        e.getCause().printStackTrace();
+      }
+    }, COMPACT_CHECK_SECONDS, COMPACT_CHECK_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /** Takes every client stripe, then every product stripe (the global lock order). */
+  private void lockEverything() {
+    for (int i = 0; i < clientLocks.stripes(); i++) clientLocks.lock(i);
+    for (int i = 0; i < productLocks.stripes(); i++) productLocks.lock(i);
+  }
+
+  private void unlockEverything() {
+    for (int i = productLocks.stripes() - 1; i >= 0; i--) productLocks.unlock(i);
+    for (int i = clientLocks.stripes() - 1; i >= 0; i--) clientLocks.unlock(i);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    if (idService == null) idService = idsPastStored(); // saved before IdService (its int invoiceSeq is dropped)
+    clientLocks = new StripedLocks();
+    productLocks = new StripedLocks();
+    indexDebtors();
+    indexBackorders();
+  }
+
+  /** Id sequences that continue after the highest client, product and invoice ids stored here. */
+  private IdService idsPastStored() {
+    IdService ids = IdService.restored(new long[0]);
+    for (Iterator<Client> it = clientList.getClients(); it.hasNext();) {
+      Client c = it.next();
+      ids.advancePast(IdService.Sequence.CLIENT, c.getId());
+      for (Invoice inv : c.getInvoices()) ids.advancePast(IdService.Sequence.INVOICE, inv.getId());
+    }
+    for (Iterator<Product> it = productCatalog.getProducts(); it.hasNext();) {
+      ids.advancePast(IdService.Sequence.PRODUCT, it.next().getId());
+    }
+    return ids;
   }
 
   // Expose lists if needed by tests/UI
   public ClientList getClientList() { return clientList; }
   public ProductCatalog getProductCatalog() { return productCatalog; }
+  IdService getIdService() { return idService; }
+  long getJournalSeq() { return journalSeq; }
 }
@@ -0,0 +1,248 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Versioned binary format for Warehouse snapshots (replaces default Java serialization).
+ *
+ * Layout: int magic "WHSE" | varint version | id marks | journal seq | clients | products.
+ * - Strings are dictionary-encoded: a varint reference, 0 = new string (UTF-8 follows),
+ *   n = the (n-1)th string already seen in this stream. Ids like P1 / C7 repeat constantly.
+ * - Ints, counts and timestamps are zig-zag varints (1-3 bytes for typical values).
+ * - Money is written as a varint of cents, exactly as it is held in memory.
+ *   Version 1 wrote it fixed-width as a double of dollars; read() still accepts that.
+ * No class descriptors and no boxed Date objects are written.
+ */
+public final class WarehouseCodec {
+  static final int MAGIC = 0x57485345; // "WHSE"
+  static final int VERSION = 2; // 1: money as a double of dollars
+
+  private WarehouseCodec() { }
+
+  // ========================= Encoding =========================
+
+  public static void write(Warehouse w, OutputStream os) throws IOException {
+    Encoder e = new Encoder(os);
+    e.out.writeInt(MAGIC);
+    e.writeVarLong(VERSION);
+    IdService ids = w.getIdService();
+    IdService.Sequence[] seqs = IdService.Sequence.values();
+    e.writeVarLong(seqs.length);
+    for (IdService.Sequence s : seqs) e.writeVarLong(ids.getHighWater(s));
+    e.writeVarLong(w.getJournalSeq());
+
+    ClientList clients = w.getClientList();
+    e.writeVarLong(clients.size());
+    for (Iterator<Client> it = clients.getClients(); it.hasNext();) writeClient(e, it.next());
+
+    ProductCatalog products = w.getProductCatalog();
+    e.writeVarLong(products.size());
+    for (Iterator<Product> it = products.getProducts(); it.hasNext();) writeProduct(e, it.next(), clients);
+    e.out.flush();
+  }
+
+  static void writeClient(Encoder e, Client c) throws IOException {
+    writeClientCore(e, c);
+    writeInvoices(e, c.getInvoices());
+  }
+
+  /** Client fields and wishlist, without invoice history. */
+  static void writeClientCore(Encoder e, Client c) throws IOException {
+    e.writeString(c.getId());
+    e.writeString(c.getName());
+    e.writeString(c.getAddress());
+    e.writeMoney(c.getBalanceCents());
+    List<WishlistItem> items = c.getWishlist().asList();
+    e.writeVarLong(items.size());
+    for (WishlistItem wi : items) {
+      e.writeString(wi.getProductId());
+      e.writeVarLong(wi.getQty());
+      e.writeVarLong(wi.getTime().getTime());
+    }
+  }
+
+  static void writeInvoices(Encoder e, List<Warehouse.Invoice> invoices) throws IOException {
+    e.writeVarLong(invoices.size());
+    for (Warehouse.Invoice inv : invoices) writeInvoice(e, inv);
+  }
+
+  static void writeInvoice(Encoder e, Warehouse.Invoice inv) throws IOException {
+    e.writeString(inv.getId()); // client id is implied by the owning client
+    e.writeVarLong(inv.getCreated().getTime());
+    List<Warehouse.InvoiceLine> lines = inv.getLines();
+    e.writeVarLong(lines.size());
+    for (Warehouse.InvoiceLine l : lines) {
+      e.writeString(l.getProductId());
+      e.writeVarLong(l.getQty());
+      e.writeMoney(l.getUnitPriceCents());
+    }
+  }
+
+  /** Waitlist entries are written by client id; clients is the list their positions refer to. */
+  static void writeProduct(Encoder e, Product p, ClientList clients) throws IOException {
+    e.writeString(p.getId());
+    e.writeString(p.getName());
+    e.writeMoney(p.getUnitPriceCents());
+    e.writeVarLong(p.getOnHandQty());
+    List<WaitList> q = p.liveWaitlist(clients);
+    e.writeVarLong(q.size());
+    for (WaitList bo : q) {
+      e.writeString(bo.getClientId());
+      e.writeVarLong(bo.getQty());
+      e.writeVarLong(bo.getCreatedAt());
+    }
+  }
+
+  // ========================= Decoding =========================
+
+  /** Reads a snapshot into a detached Warehouse; Warehouse.retrieve() installs it as the singleton. */
+  public static Warehouse read(InputStream is) throws IOException {
+    Decoder d = new Decoder(is);
+    if (d.in.readInt() != MAGIC) throw new StreamCorruptedException("not a warehouse snapshot");
+    int version = d.readInt();
+    if (version < 1 || version > VERSION) throw new StreamCorruptedException("unsupported snapshot version " + version);
+    d.dollarMoney = version < 2;
+    long[] marks = new long[d.readInt()];
+    for (int i = 0; i < marks.length; i++) marks[i] = d.readVarLong();
+    long journalSeq = d.readVarLong();
+
+    ClientList clients = ClientList.detached();
+    for (int i = d.readInt(); i > 0; i--) clients.restoreClient(readClient(d));
+    ProductCatalog products = ProductCatalog.detached();
+    for (int i = d.readInt(); i > 0; i--) products.restoreProduct(readProduct(d));
+    return Warehouse.restored(clients, products, IdService.restored(marks), journalSeq);
+  }
+
+  static Client readClient(Decoder d) throws IOException {
+    Client c = readClientCore(d);
+    for (Warehouse.Invoice inv : readInvoices(d, c.getId())) c.addInvoice(inv);
+    return c;
+  }
+
+  static Client readClientCore(Decoder d) throws IOException {
+    Client c = new Client(d.readString(), d.readString(), d.readString());
+    c.restoreBalance(d.readMoney());
+    Wishlist wl = c.getWishlist();
+    for (int i = d.readInt(); i > 0; i--) {
+      String pid = d.readString();
+      int qty = d.readInt();
+      wl.restoreItem(new WishlistItem(pid, qty, new Date(d.readVarLong())));
+    }
+    return c;
+  }
+
+  static List<Warehouse.Invoice> readInvoices(Decoder d, String clientId) throws IOException {
+    int n = d.readInt();
+    List<Warehouse.Invoice> list = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) list.add(readInvoice(d, clientId));
+    return list;
+  }
+
+  static Warehouse.Invoice readInvoice(Decoder d, String clientId) throws IOException {
+    Warehouse.Invoice inv = new Warehouse.Invoice(d.readString(), clientId, d.readVarLong());
+    for (int i = d.readInt(); i > 0; i--) {
+      String pid = d.readString();
+      int qty = d.readInt();
+      inv.addLine(pid, qty, d.readMoney());
+    }
+    return inv.seal();
+  }
+
+  static Product readProduct(Decoder d) throws IOException {
+    String id = d.readString(), name = d.readString();
+    long price = d.readMoney();
+    Product p = Product.restored(id, name, price, d.readInt());
+    for (int i = d.readInt(); i > 0; i--) {
+      String cid = d.readString();
+      int qty = d.readInt();
+      p.restoreWaitList(cid, qty, d.readVarLong());
+    }
+    return p;
+  }
+
+  // ========================= Primitives =========================
+
+  /** Stream writer with its own string dictionary. */
+  static final class Encoder {
+    final DataOutputStream out;
+    private final Map<String, Integer> dict = new HashMap<>();
+
+    Encoder(OutputStream os) {
+      this.out = (os instanceof DataOutputStream) ? (DataOutputStream) os : new DataOutputStream(os);
+    }
+
+    void writeVarLong(long v) throws IOException {
+      long z = (v << 1) ^ (v >> 63); // zig-zag so small negatives stay short
+      while ((z & ~0x7FL) != 0) {
+        out.writeByte((int) ((z & 0x7F) | 0x80));
+        z >>>= 7;
+      }
+      out.writeByte((int) z);
+    }
+
+    void writeString(String s) throws IOException {
+      if (s == null) { writeVarLong(-1); return; }
+      Integer ref = dict.get(s);
+      if (ref != null) { writeVarLong(ref + 1); return; }
+      dict.put(s, dict.size());
+      writeVarLong(0);
+      byte[] b = s.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+      writeVarLong(b.length);
+      out.write(b);
+    }
+
+    void writeMoney(long cents) throws IOException {
+      writeVarLong(cents);
+    }
+
+    /** Starts a new dictionary (at a block boundary, so each block decodes on its own). */
+    void resetDictionary() { dict.clear(); }
+  }
+
+  /** Stream reader mirroring Encoder. */
+  static final class Decoder {
+    final DataInputStream in;
+    private final List<String> dict = new ArrayList<>();
+    boolean dollarMoney; // older formats wrote money as a double of dollars
+
+    Decoder(InputStream is) {
+      this.in = (is instanceof DataInputStream) ? (DataInputStream) is : new DataInputStream(is);
+    }
+
+    long readVarLong() throws IOException {
+      long z = 0;
+      for (int shift = 0; ; shift += 7) {
+        int b = in.readUnsignedByte();
+        z |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) break;
+        if (shift > 63) throw new StreamCorruptedException("varint too long");
+      }
+      return (z >>> 1) ^ -(z & 1);
+    }
+
+    int readInt() throws IOException {
+      long v = readVarLong();
+      if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) throw new StreamCorruptedException("int out of range");
+      return (int) v;
+    }
+
+    String readString() throws IOException {
+      long ref = readVarLong();
+      if (ref < 0) return null;
+      if (ref > 0) {
+        if (ref > dict.size()) throw new StreamCorruptedException("bad string reference");
+        return dict.get((int) ref - 1);
+      }
+      byte[] b = new byte[readInt()];
+      in.readFully(b);
+      String s = new String(b, java.nio.charset.StandardCharsets.UTF_8);
+      dict.add(s);
+      return s;
+    }
+
+    long readMoney() throws IOException {
+      return dollarMoney ? Money.cents(in.readDouble()) : readVarLong();
+    }
+
+    void resetDictionary() { dict.clear(); }
+  }
+}
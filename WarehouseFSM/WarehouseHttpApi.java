@@ -0,0 +1,585 @@
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * JSON over HTTP for the Warehouse operations, on the JDK's HttpServer with one virtual thread
+ * per request.
+ *
+ *   java WarehouseHttpApi [--port 8080] [--metrics-log 60] [--fast-start]
+ *   curl -X POST localhost:8080/clients -d '{"name":"Ann","address":"1 Main St"}'
+ *   curl 'localhost:8080/clients?size=100&page=c.2s.8'
+ *
+ *   GET  /clients, /products                 paged: ?size= (1..1000, default 50) &page=<next>
+ *   POST /clients {name, address}            POST /products {id?, name, price, qty}
+ *   GET  /clients/{id}, /products/{id}
+ *   GET  /clients/{id}/wishlist              POST /clients/{id}/wishlist {product, qty}
+ *   POST /clients/{id}/orders                the invoice, or 409 if nothing could be ordered
+ *   GET  /clients/{id}/invoices              paged like /clients
+ *   GET  /clients/{id}/backorders            POST /clients/{id}/payments {amount}
+ *   GET  /products/{id}/waitlist             ?size= &after=<seq of the last entry seen>
+ *   POST /products/{id}/shipments {qty}      the invoices it generated
+ *   GET  /debtors?limit=                     largest balances first, with total receivables
+ *   GET  /stats                              request count and latency percentiles per route
+ *   GET  /metrics                            every Metrics series, as Prometheus text
+ *
+ * Responses are streamed (chunked) as they are written. Paged listings carry "next", the token
+ * or cursor for the following page, or null on the last one. Errors are {"error": message}
+ * with 400 (bad request), 404 (unknown route, client or product) or 409. Money is a number with
+ * two decimals, times are ISO-8601 instants.
+ */
+public class WarehouseHttpApi implements Closeable {
+  private static final int DEFAULT_PAGE = 50, MAX_PAGE = 1000;
+  private static final int BUFFER_BYTES = 8 * 1024;
+
+  private final Warehouse warehouse;
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final List<Route> routes = new ArrayList<>();
+  private final Route unmatched = new Route("*", "(unmatched)", null);
+
+  public WarehouseHttpApi(Warehouse warehouse, int port) throws IOException {
+    this.warehouse = warehouse;
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.setExecutor(executor);
+    server.createContext("/", this::dispatch);
+
+    route("GET", "/clients", this::listClients);
+    route("POST", "/clients", this::addClient);
+    route("GET", "/clients/{id}", this::getClient);
+    route("GET", "/clients/{id}/wishlist", this::getWishlist);
+    route("POST", "/clients/{id}/wishlist", this::addToWishlist);
+    route("POST", "/clients/{id}/orders", this::placeOrder);
+    route("GET", "/clients/{id}/invoices", this::listInvoices);
+    route("GET", "/clients/{id}/backorders", this::getBackorders);
+    route("POST", "/clients/{id}/payments", this::recordPayment);
+    route("GET", "/products", this::listProducts);
+    route("POST", "/products", this::addProduct);
+    route("GET", "/products/{id}", this::getProduct);
+    route("GET", "/products/{id}/waitlist", this::getWaitlist);
+    route("POST", "/products/{id}/shipments", this::receiveShipment);
+    route("GET", "/debtors", this::getDebtors);
+    route("GET", "/stats", this::getStats);
+    route("GET", "/metrics", this::getMetrics);
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = 8080, logSeconds = 0;
+    boolean fastStart = false;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--port")) port = Integer.parseInt(args[++i]);
+      else if (args[i].equals("--metrics-log")) logSeconds = Integer.parseInt(args[++i]);
+      else if (args[i].equals("--fast-start")) fastStart = true;
+      else throw new IllegalArgumentException("unexpected argument: " + args[i]);
+    }
+    if (logSeconds > 0) Metrics.logEvery(logSeconds);
+    WarehouseHttpApi api = new WarehouseHttpApi(Warehouse.open(fastStart), port).start();
+    Runtime.getRuntime().addShutdownHook(new Thread(api::close));
+    System.out.println("Warehouse HTTP API listening on port " + api.getPort());
+  }
+
+  public WarehouseHttpApi start() {
+    server.start();
+    return this;
+  }
+
+  public int getPort() { return server.getAddress().getPort(); }
+
+  @Override public void close() {
+    server.stop(1);
+    executor.shutdown();
+  }
+
+  // ======================= Routing =======================
+
+  private interface Handler {
+    /** Writes the response; returns its status. Throws HttpError for 4xx answers. */
+    int handle(Request r) throws IOException;
+  }
+
+  /** One endpoint, with its latency and error count in the Metrics registry. */
+  private static final class Route {
+    final String method;
+    final String pattern;
+    final String[] segments;
+    final Handler handler;
+    final Metrics.Timer latency;
+    final Metrics.Counter errors;
+
+    Route(String method, String pattern, Handler handler) {
+      this.method = method;
+      this.pattern = pattern;
+      this.segments = pattern.substring(1).split("/");
+      this.handler = handler;
+      this.latency = Metrics.timer("http_request_seconds", "HTTP API request latency by route", "route", method + " " + pattern);
+      this.errors = Metrics.counter("http_request_errors_total", "HTTP API responses with status 400 or above", "route", method + " " + pattern);
+    }
+
+    /** The {id} path parameter ("" if none), or null if the path doesn't match. */
+    String match(String method, String[] path) {
+      if (!this.method.equals(method) || path.length != segments.length) return null;
+      String id = "";
+      for (int i = 0; i < path.length; i++) {
+        if (segments[i].equals("{id}")) id = path[i];
+        else if (!segments[i].equals(path[i])) return null;
+      }
+      return id;
+    }
+
+    void record(long nanos, int status) {
+      latency.record(nanos);
+      if (status >= 400) errors.inc();
+    }
+  }
+
+  private void route(String method, String pattern, Handler h) { routes.add(new Route(method, pattern, h)); }
+
+  private static final class HttpError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    final int status;
+    HttpError(int status, String message) {
+      super(message, null, false, false);
+      this.status = status;
+    }
+  }
+
+  private void dispatch(HttpExchange ex) throws IOException {
+    long t0 = System.nanoTime();
+    String[] path = ex.getRequestURI().getRawPath().replaceAll("^/+|/+$", "").split("/");
+    for (int i = 0; i < path.length; i++) path[i] = URLDecoder.decode(path[i], StandardCharsets.UTF_8);
+    Route route = unmatched;
+    String id = null;
+    for (Route r : routes) {
+      if ((id = r.match(ex.getRequestMethod(), path)) != null) { route = r; break; }
+    }
+    int status = 500;
+    try { // not try-with-resources: the exchange must stay open for the error response
+      if (route == unmatched) throw new HttpError(404, "no route for " + ex.getRequestMethod() + " " + ex.getRequestURI().getPath());
+      status = route.handler.handle(new Request(ex, id));
+    } catch (HttpError e) {
+      status = e.status;
+      error(ex, e.status, e.getMessage());
+    } catch (IllegalArgumentException e) {
+      status = 400;
+      error(ex, 400, e.getMessage());
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+      error(ex, 500, "internal error");
+    } finally {
+      ex.close();
+      route.record(System.nanoTime() - t0, status);
+    }
+  }
+
+  private static void error(HttpExchange ex, int status, String message) {
+    if (ex.getResponseCode() != -1) return; // already streaming a response; all we can do is cut it short
+    try (JsonWriter json = open(ex, status)) {
+      json.beginObject().name("error").value(message).endObject();
+    } catch (IOException | UncheckedIOException ignore) {}
+  }
+
+  /** Sends the headers (chunked body) and returns a buffered JSON writer on the body; close it to end the response. */
+  private static JsonWriter open(HttpExchange ex, int status) throws IOException {
+    ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    ex.sendResponseHeaders(status, 0);
+    return new JsonWriter(new BufferedWriter(new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8), BUFFER_BYTES));
+  }
+
+  /** Request parameters: the {id} path segment, the query string and the JSON body. */
+  private static final class Request {
+    final HttpExchange ex;
+    final String id;
+    private Map<String, String> query;
+    private Map<String, String> body;
+
+    Request(HttpExchange ex, String id) {
+      this.ex = ex;
+      this.id = id;
+    }
+
+    String query(String name) {
+      if (query == null) query = parseQuery(ex.getRequestURI().getRawQuery());
+      return query.get(name);
+    }
+
+    int pageSize() {
+      String s = query("size");
+      int n = (s == null) ? DEFAULT_PAGE : parseInt("size", s);
+      if (n < 1 || n > MAX_PAGE) throw new HttpError(400, "size must be 1.." + MAX_PAGE);
+      return n;
+    }
+
+    String body(String name, boolean required) throws IOException {
+      if (body == null) {
+        try (InputStream in = ex.getRequestBody()) {
+          body = parseObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+      }
+      String v = body.get(name);
+      if (v == null && required) throw new HttpError(400, "missing \"" + name + "\"");
+      return v;
+    }
+
+    int bodyInt(String name) throws IOException { return parseInt(name, body(name, true)); }
+
+    double bodyDouble(String name) throws IOException {
+      try {
+        return Double.parseDouble(body(name, true));
+      } catch (NumberFormatException e) {
+        throw new HttpError(400, "\"" + name + "\" must be a number");
+      }
+    }
+  }
+
+  // ======================= Clients =======================
+
+  private int listClients(Request r) throws IOException {
+    Page<Client> page = warehouse.getClients(r.query("page"), r.pageSize(), null);
+    try (JsonWriter json = open(r.ex, 200)) {
+      json.beginObject().name("items").beginArray();
+      for (Client c : page.getItems()) client(json, c);
+      json.endArray().name("next").value(page.getNextToken()).endObject();
+    }
+    return 200;
+  }
+
+  private int addClient(Request r) throws IOException {
+    Client c = warehouse.addClient(r.body("name", true), r.body("address", true));
+    if (c == null) throw new HttpError(409, "client not added");
+    try (JsonWriter json = open(r.ex, 201)) { client(json, c); }
+    return 201;
+  }
+
+  private int getClient(Request r) throws IOException {
+    Client c = client(r.id);
+    try (JsonWriter json = open(r.ex, 200)) { client(json, c); }
+    return 200;
+  }
+
+  private int getWishlist(Request r) throws IOException {
+    client(r.id);
+    try (JsonWriter json = open(r.ex, 200)) {
+      json.beginArray();
+      for (Iterator<WishlistItem> it = warehouse.getWishlistItems(r.id); it.hasNext();) {
+        WishlistItem wi = it.next();
+        json.beginObject().name("product").value(wi.getProductId()).name("qty").value(wi.getQty())
+            .name("added").value(Instant.ofEpochMilli(wi.getTime().getTime()).toString()).endObject();
+      }
+      json.endArray();
+    }
+    return 200;
+  }
+
+  private int addToWishlist(Request r) throws IOException {
+    client(r.id);
+    String pid = r.body("product", true);
+    product(pid);
+    WishlistItem item = warehouse.addToWishlist(r.id, pid, r.bodyInt("qty"));
+    if (item == null) throw new HttpError(400, "qty must be positive");
+    try (JsonWriter json = open(r.ex, 200)) {
+      json.beginObject().name("product").value(pid).name("qty").value(item.getQty()).endObject();
+    }
+    return 200;
+  }
+
+  private int placeOrder(Request r) throws IOException {
+    client(r.id);
+    Warehouse.Invoice inv = warehouse.placeOrderFromWishlist(r.id);
+    if (inv == null) throw new HttpError(409, "no order placed (wishlist empty or no stock)");
+    try (JsonWriter json = open(r.ex, 201)) { invoice(json, inv); }
+    return 201;
+  }
+
+  private int listInvoices(Request r) throws IOException {
+    Page<Warehouse.Invoice> page = warehouse.getInvoices(r.id, r.query("page"), r.pageSize(), null);
+    if (page == null) throw new HttpError(404, "no such client: " + r.id);
+    try (JsonWriter json = open(r.ex, 200)) {
+      json.beginObject().name("items").beginArray();
+      for (Warehouse.Invoice inv : page.getItems()) invoice(json, inv);
+      json.endArray().name("next").value(page.getNextToken()).endObject();
+    }
+    return 200;
+  }
+
+  private int getBackorders(Request r) throws IOException {
+    client(r.id);
+    List<WaitList> open = warehouse.getBackorders(r.id);
+    try (JsonWriter json = open(r.ex, 200)) {
+      json.beginArray();
+      for (WaitList bo : open) {
+        json.beginObject().name("product").value(bo.getProductId()).name("qty").value(bo.getQty())
+            .name("since").value(Instant.ofEpochMilli(bo.getCreatedAt()).toString()).endObject();
+      }
+      json.endArray();
+    }
+    return 200;
+  }
+
+  private int recordPayment(Request r) throws IOException {
+    Client c = client(r.id);
+    if (!warehouse.recordPayment(r.id, r.bodyDouble("amount"))) throw new HttpError(400, "amount must be positive");
+    try (JsonWriter json = open(r.ex, 200)) { client(json, c); }
+    return 200;
+  }
+
+  // ======================= Products =======================
+
+  private int listProducts(Request r) throws IOException {
+    Page<Product> page = warehouse.getProducts(r.query("page"), r.pageSize(), null);
+    try (JsonWriter json = open(r.ex, 200)) {
+      json.beginObject().name("items").beginArray();
+      for (Product p : page.getItems()) product(json, p);
+      json.endArray().name("next").value(page.getNextToken()).endObject();
+    }
+    return 200;
+  }
+
+  private int addProduct(Request r) throws IOException {
+    double price = r.bodyDouble("price");
+    int qty = r.bodyInt("qty");
+    if (price < 0 || qty < 0) throw new HttpError(400, "price and qty must not be negative");
+    Product p = warehouse.addProduct(r.body("id", false), r.body("name", true), price, qty);
+    if (p == null) throw new HttpError(409, "product not added (duplicate id?)");
+    try (JsonWriter json = open(r.ex, 201)) { product(json, p); }
+    return 201;
+  }
+
+  private int getProduct(Request r) throws IOException {
+    Product p = product(r.id);
+    try (JsonWriter json = open(r.ex, 200)) { product(json, p); }
+    return 200;
+  }
+
+  private int getWaitlist(Request r) throws IOException {
+    String after = r.query("after");
+    int size = r.pageSize();
+    List<WaitList> page = warehouse.getWaitlist(r.id, after == null ? -1 : parseLong("after", after), size);
+    if (page == null) throw new HttpError(404, "no such product: " + r.id);
+    try (JsonWriter json = open(r.ex, 200)) {
+      json.beginObject().name("items").beginArray();
+      for (WaitList w : page) {
+        json.beginObject().name("client").value(w.getClientId()).name("qty").value(w.getQty())
+            .name("since").value(Instant.ofEpochMilli(w.getCreatedAt()).toString()).endObject();
+      }
+      json.endArray().name("next");
+      if (page.size() < size) json.value((String) null);
+      else json.value(Long.toString(page.get(page.size() - 1).getSeq()));
+      json.endObject();
+    }
+    return 200;
+  }
+
+  private int receiveShipment(Request r) throws IOException {
+    product(r.id);
+    int qty = r.bodyInt("qty");
+    if (qty <= 0) throw new HttpError(400, "qty must be positive");
+    List<Warehouse.Invoice> invoices = warehouse.receiveShipment(r.id, qty);
+    try (JsonWriter json = open(r.ex, 200)) {
+      json.beginObject().name("product").value(r.id).name("qty").value(qty).name("invoices").beginArray();
+      for (Warehouse.Invoice inv : invoices) invoice(json, inv);
+      json.endArray().endObject();
+    }
+    return 200;
+  }
+
+  // ======================= Reports =======================
+
+  private int getDebtors(Request r) throws IOException {
+    String s = r.query("limit");
+    int limit = (s == null) ? DEFAULT_PAGE : parseInt("limit", s);
+    if (limit < 1 || limit > MAX_PAGE) throw new HttpError(400, "limit must be 1.." + MAX_PAGE);
+    List<DebtorIndex.Debtor> top = warehouse.getTopDebtors(limit);
+    try (JsonWriter json = open(r.ex, 200)) {
+      json.beginObject().name("items").beginArray();
+      for (DebtorIndex.Debtor d : top) {
+        json.beginObject().name("id").value(d.getClient().getId()).name("name").value(d.getClient().getName())
+            .name("balance").money(d.getBalanceCents()).endObject();
+      }
+      json.endArray().name("receivables").money(warehouse.getReceivablesCents())
+          .name("debtors").value(warehouse.getDebtorCount()).endObject();
+    }
+    return 200;
+  }
+
+  /** Per route: requests, errors (4xx/5xx) and latency in microseconds. */
+  private int getStats(Request r) throws IOException {
+    try (JsonWriter json = open(r.ex, 200)) {
+      json.beginArray();
+      List<Route> all = new ArrayList<>(routes);
+      all.add(unmatched);
+      for (Route route : all) {
+        LatencyHistogram h = route.latency.snapshot();
+        long errors = route.errors.get();
+        if (h.getCount() == 0) continue;
+        json.beginObject().name("route").value(route.method + " " + route.pattern)
+            .name("count").value(h.getCount()).name("errors").value(errors)
+            .name("meanMicros").value(Math.round(h.getMean() / 1e3))
+            .name("p50Micros").value(h.getValueAtPercentile(50) / 1000)
+            .name("p90Micros").value(h.getValueAtPercentile(90) / 1000)
+            .name("p99Micros").value(h.getValueAtPercentile(99) / 1000)
+            .name("maxMicros").value(h.getMax() / 1000).endObject();
+      }
+      json.endArray();
+    }
+    return 200;
+  }
+
+  private int getMetrics(Request r) throws IOException {
+    r.ex.getResponseHeaders().set("Content-Type", Metrics.CONTENT_TYPE);
+    r.ex.sendResponseHeaders(200, 0);
+    try (Writer w = new BufferedWriter(new OutputStreamWriter(r.ex.getResponseBody(), StandardCharsets.UTF_8), BUFFER_BYTES)) {
+      Metrics.writePrometheus(w);
+    }
+    return 200;
+  }
+
+  // ======================= JSON shapes and lookups =======================
+
+  private Client client(String id) {
+    Client c = warehouse.findClientById(id);
+    if (c == null) throw new HttpError(404, "no such client: " + id);
+    return c;
+  }
+
+  private Product product(String id) {
+    Product p = warehouse.findProductById(id);
+    if (p == null) throw new HttpError(404, "no such product: " + id);
+    return p;
+  }
+
+  private static void client(JsonWriter json, Client c) {
+    json.beginObject().name("id").value(c.getId()).name("name").value(c.getName())
+        .name("address").value(c.getAddress()).name("balance").money(c.getBalanceCents()).endObject();
+  }
+
+  private static void product(JsonWriter json, Product p) {
+    json.beginObject().name("id").value(p.getId()).name("name").value(p.getName())
+        .name("price").money(p.getUnitPriceCents()).name("qty").value(p.getOnHandQty()).endObject();
+  }
+
+  private static void invoice(JsonWriter json, Warehouse.Invoice inv) {
+    json.beginObject().name("id").value(inv.getId()).name("client").value(inv.getClientId())
+        .name("created").value(inv.getCreated().toInstant().toString())
+        .name("total").money(inv.getTotalCents()).name("lines").beginArray();
+    for (Warehouse.InvoiceLine l : inv.getLines()) {
+      json.beginObject().name("product").value(l.getProductId()).name("qty").value(l.getQty())
+          .name("price").money(l.getUnitPriceCents()).name("total").money(l.getLineTotalCents()).endObject();
+    }
+    json.endArray().endObject();
+  }
+
+  // ======================= Request parsing =======================
+
+  private static int parseInt(String name, String s) {
+    try {
+      return Integer.parseInt(s.trim());
+    } catch (NumberFormatException e) {
+      throw new HttpError(400, "\"" + name + "\" must be an integer");
+    }
+  }
+
+  /** Waitlist seqs are longs (40 bits, see Warehouse) and "next" hands them out as such. */
+  private static long parseLong(String name, String s) {
+    try {
+      return Long.parseLong(s.trim());
+    } catch (NumberFormatException e) {
+      throw new HttpError(400, "\"" + name + "\" must be an integer");
+    }
+  }
+
+  private static Map<String, String> parseQuery(String raw) {
+    Map<String, String> q = new HashMap<>();
+    if (raw == null) return q;
+    for (String pair : raw.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq < 0) continue;
+      q.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+    }
+    return q;
+  }
+
+  /**
+   * A flat JSON object (string, number, true/false/null members) as name -> text; numbers and
+   * literals are kept as written, null maps to null. That's all the request bodies need.
+   */
+  static Map<String, String> parseObject(String s) {
+    Map<String, String> m = new HashMap<>();
+    int[] pos = { skip(s, 0) };
+    if (pos[0] == s.length()) return m; // empty body
+    expect(s, pos, '{');
+    if (peek(s, pos) == '}') { pos[0]++; return m; }
+    while (true) {
+      if (peek(s, pos) != '"') throw new HttpError(400, "bad JSON: expected a name at " + pos[0]);
+      String name = string(s, pos);
+      expect(s, pos, ':');
+      char c = peek(s, pos);
+      if (c == '"') m.put(name, string(s, pos));
+      else if (c == '{' || c == '[') throw new HttpError(400, "bad JSON: \"" + name + "\" must be a plain value");
+      else {
+        int start = pos[0];
+        while (pos[0] < s.length() && ",} \t\r\n".indexOf(s.charAt(pos[0])) < 0) pos[0]++;
+        String v = s.substring(start, pos[0]);
+        if (v.isEmpty()) throw new HttpError(400, "bad JSON: missing value for \"" + name + "\"");
+        m.put(name, v.equals("null") ? null : v);
+      }
+      char sep = peek(s, pos);
+      pos[0]++;
+      if (sep == '}') break;
+      if (sep != ',') throw new HttpError(400, "bad JSON: expected , or } at " + (pos[0] - 1));
+    }
+    if (skip(s, pos[0]) != s.length()) throw new HttpError(400, "bad JSON: trailing text");
+    return m;
+  }
+
+  private static int skip(String s, int i) {
+    while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+    return i;
+  }
+
+  private static char peek(String s, int[] pos) {
+    pos[0] = skip(s, pos[0]);
+    if (pos[0] >= s.length()) throw new HttpError(400, "bad JSON: unexpected end");
+    return s.charAt(pos[0]);
+  }
+
+  private static void expect(String s, int[] pos, char c) {
+    if (peek(s, pos) != c) throw new HttpError(400, "bad JSON: expected " + c + " at " + pos[0]);
+    pos[0]++;
+  }
+
+  private static String string(String s, int[] pos) {
+    StringBuilder sb = new StringBuilder();
+    int i = pos[0] + 1;
+    while (true) {
+      if (i >= s.length()) throw new HttpError(400, "bad JSON: unterminated string");
+      char c = s.charAt(i++);
+      if (c == '"') break;
+      if (c != '\\') { sb.append(c); continue; }
+      if (i >= s.length()) throw new HttpError(400, "bad JSON: unterminated string");
+      char e = s.charAt(i++);
+      switch (e) {
+        case 'n': sb.append('\n'); break;
+        case 't': sb.append('\t'); break;
+        case 'r': sb.append('\r'); break;
+        case 'b': sb.append('\b'); break;
+        case 'f': sb.append('\f'); break;
+        case 'u':
+          if (i + 4 > s.length()) throw new HttpError(400, "bad JSON: bad escape");
+          try {
+            sb.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+          } catch (NumberFormatException ex) {
+            throw new HttpError(400, "bad JSON: bad escape");
+          }
+          i += 4;
+          break;
+        default: sb.append(e); // \" \\ \/
+      }
+    }
+    pos[0] = i;
+    return sb.toString();
+  }
+}
@@ -0,0 +1,175 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Line-oriented TCP front end: every connection gets its own menu session (a Context, starting
+ * at the Login menu) on its own virtual thread, all sharing one Warehouse.
+ *
+ *   java WarehouseServer                     (port 7070, 10000 connections, 300 s idle timeout)
+ *   java WarehouseServer --port 7070 --max-connections 20000 --idle-seconds 60 --headless
+ *   java WarehouseServer --metrics-port 9100 --metrics-log 60   (Prometheus text at :9100/metrics)
+ *   java WarehouseServer --fast-start         (invoice histories load on demand, see Warehouse.retrieve)
+ *   telnet localhost 7070
+ *
+ * Sessions are interactive (prompts and menus, as on the console) unless --headless, in which
+ * case each connection speaks the headless record protocol (see Context). Past the connection
+ * limit a client is told the server is busy and disconnected; a session that sends nothing for
+ * the idle timeout is told so and disconnected. Socket I/O is buffered per connection and
+ * flushed whenever the session waits for input. Text is UTF-8. The connection counts are
+ * exported through Metrics.
+ */
+public class WarehouseServer implements Closeable {
+  private static final int BUFFER_BYTES = 8 * 1024;
+  private static final int BACKLOG = 4096;
+
+  private final Warehouse warehouse;
+  private final ServerSocket server;
+  private final Semaphore slots;
+  private final int idleMillis;
+  private final boolean headless;
+  private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+  private final LongAdder accepted = new LongAdder();
+  private final LongAdder refused = new LongAdder();
+  private final LongAdder timedOut = new LongAdder();
+  private volatile boolean closed;
+
+  public WarehouseServer(Warehouse warehouse, int port, int maxConnections, int idleSeconds, boolean headless) throws IOException {
+    this.warehouse = warehouse;
+    this.server = new ServerSocket(port, BACKLOG);
+    this.slots = new Semaphore(maxConnections);
+    this.idleMillis = idleSeconds * 1000;
+    this.headless = headless;
+    Metrics.counter("server_connections_accepted_total", "Connections given a session", accepted::sum);
+    Metrics.counter("server_connections_refused_total", "Connections turned away at the connection limit", refused::sum);
+    Metrics.counter("server_idle_timeouts_total", "Sessions closed for sending nothing", timedOut::sum);
+    Metrics.gauge("server_connections_open", "Sessions connected now", open::size);
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = 7070, max = 10_000, idle = 300, metricsPort = -1, logSeconds = 0;
+    boolean headless = false, fastStart = false;
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--fast-start": fastStart = true; break;
+        case "--port": port = Integer.parseInt(args[++i]); break;
+        case "--max-connections": max = Integer.parseInt(args[++i].replace("_", "")); break;
+        case "--idle-seconds": idle = Integer.parseInt(args[++i]); break;
+        case "--headless": headless = true; break;
+        case "--metrics-port": metricsPort = Integer.parseInt(args[++i]); break;
+        case "--metrics-log": logSeconds = Integer.parseInt(args[++i]); break;
+        default: throw new IllegalArgumentException("unexpected argument: " + args[i]);
+      }
+    }
+    if (metricsPort >= 0) Metrics.serve(metricsPort);
+    if (logSeconds > 0) Metrics.logEvery(logSeconds);
+    WarehouseServer s = new WarehouseServer(Warehouse.open(fastStart), port, max, idle, headless);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      s.close();
+      System.out.println(s);
+    }));
+    System.out.println("Warehouse server listening on port " + s.getPort() + (headless ? " (headless)" : ""));
+    s.acceptLoop();
+  }
+
+  public int getPort() { return server.getLocalPort(); }
+
+  /** Accepts connections on a background thread until close(). */
+  public WarehouseServer start() {
+    Thread.ofPlatform().name("warehouse-accept").daemon().start(this::acceptLoop);
+    return this;
+  }
+
+  private void acceptLoop() {
+    long n = 0;
+    while (!closed) {
+      Socket s;
+      try {
+        s = server.accept();
+      } catch (IOException e) {
+        if (closed) return;
+        System.out.println("accept failed: " + e.getMessage());
+        continue;
+      }
+      if (!slots.tryAcquire()) {
+        refused.increment();
+        refuse(s);
+        continue;
+      }
+      accepted.increment();
+      Thread.ofVirtual().name("session-" + ++n).start(() -> serve(s));
+    }
+  }
+
+  private void serve(Socket s) {
+    open.add(s);
+    OutputStream out = null;
+    try { // not try-with-resources: the socket must outlive the catch blocks
+      s.setSoTimeout(idleMillis);
+      s.setTcpNoDelay(true); // output is already batched until the session waits for input
+      out = new BufferedOutputStream(s.getOutputStream(), BUFFER_BYTES);
+      session(s.getInputStream(), out).start();
+    } catch (UncheckedIOException e) {
+      if (e.getCause() instanceof SocketTimeoutException) {
+        timedOut.increment();
+        say(out, headless ? "error\tidle timeout" : "Idle timeout, closing the connection.");
+      } // anything else: the client went away
+    } catch (IOException e) {
+      // the client went away
+    } catch (RuntimeException e) {
+      e.printStackTrace(); // a failing session must not take the server down
+    } finally {
+      try {
+        s.close();
+      } catch (IOException ignore) {}
+      open.remove(s);
+      slots.release();
+    }
+  }
+
+  private Context session(InputStream in, OutputStream out) {
+    if (headless) {
+      return Context.headless(warehouse, new InputStreamReader(in, StandardCharsets.UTF_8), new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+    return new Context(warehouse, in, new PrintStream(out, false, StandardCharsets.UTF_8));
+  }
+
+  private void refuse(Socket s) {
+    try (s) {
+      say(s.getOutputStream(), headless ? "error\tserver busy" : "Server busy, try again later.");
+    } catch (IOException ignore) {}
+  }
+
+  private static void say(OutputStream out, String line) {
+    if (out == null) return;
+    try {
+      out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+      out.flush();
+    } catch (IOException ignore) {}
+  }
+
+  public long getAccepted() { return accepted.sum(); }
+  public long getRefused() { return refused.sum(); }
+  public long getTimedOut() { return timedOut.sum(); }
+  public int getOpen() { return open.size(); }
+
+  /** Stops accepting and disconnects every open session. */
+  @Override public void close() {
+    closed = true;
+    try {
+      server.close();
+    } catch (IOException ignore) {}
+    for (Socket s : open) {
+      try {
+        s.close();
+      } catch (IOException ignore) {}
+    }
+  }
+
+  @Override public String toString() {
+    return String.format("accepted %d, refused %d, idle timeouts %d, open %d", getAccepted(), getRefused(), getTimedOut(), getOpen());
+  }
+}
@@ -59,8 +59,8 @@ public class Wishlist implements Serializable {
     return existing == null ? 0 : existing.getQty();
   }
 
-  /** Raw iterator (to match your template style). */
-  public Iterator getItems() {
+  /** Iterator over the items (read-only). */
+  public Iterator<WishlistItem> getItems() {
     return Collections.unmodifiableCollection(items.values()).iterator();
   }
 
@@ -69,6 +69,20 @@ public class Wishlist implements Serializable {
     return Collections.unmodifiableList(new ArrayList<>(items.values()));
   }
 
+  /** Loader hook: re-adds an item exactly as stored (keeps its time, replaces any entry). */
+  void restoreItem(WishlistItem item) {
+    items.put(item.getProductId(), item);
+  }
+
+  /** Detached copy for a background snapshot. */
+  Wishlist snapshotCopy() {
+    Wishlist w = new Wishlist();
+    for (WishlistItem it : items.values()) {
+      w.items.put(it.getProductId(), new WishlistItem(it.getProductId(), it.getQty(), it.getTime()));
+    }
+    return w;
+  }
+
   public int size() { return items.size(); }
   public boolean isEmpty() { return items.isEmpty(); }
   public void clear() { items.clear(); }
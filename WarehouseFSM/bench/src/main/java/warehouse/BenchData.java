@@ -0,0 +1,47 @@
+package warehouse;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/** Detached warehouses and id sets shared by the benchmarks; nothing here is measured. */
+final class BenchData {
+  private BenchData() {}
+
+  /** Ids looked up per benchmark cycle; a power of two so the cursor is a mask. */
+  static final int IDS = 4096;
+
+  /** Warehouse with the given clients and products, empty wishlists and plenty of stock. */
+  static Warehouse warehouse(int clients, int products) {
+    Warehouse w = GroupCommitBenchmark.build(clients, 0, products);
+    for (Iterator<Product> it = w.getProducts(); it.hasNext();) it.next().setOnHandQty(Integer.MAX_VALUE / 2);
+    return w;
+  }
+
+  /** IDS ids drawn at random from prefix1..prefix{n}. */
+  static String[] randomIds(String prefix, int n, long seed) {
+    Random rnd = new Random(seed);
+    String[] ids = new String[IDS];
+    for (int i = 0; i < IDS; i++) ids[i] = prefix + (1 + rnd.nextInt(n));
+    return ids;
+  }
+
+  /**
+   * Points Warehouse.save()/retrieve() at a fresh temporary directory and returns it, so a run
+   * started from the application directory never touches its WarehouseData files.
+   */
+  static Path tempDataDirectory() throws IOException {
+    Path dir = Files.createTempDirectory("warehouse-bench");
+    Warehouse.setDataDirectory(dir);
+    return dir;
+  }
+
+  /** Deletes a directory from tempDataDirectory() with everything save() left in it. */
+  static void deleteTree(Path dir) throws IOException {
+    if (!Files.exists(dir)) return;
+    try (Stream<Path> files = Files.walk(dir)) {
+      for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+    }
+  }
+}
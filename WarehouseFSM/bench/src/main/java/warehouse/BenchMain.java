@@ -0,0 +1,26 @@
+package warehouse;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar: the usual JMH command line, plus defaults so every run is
+ * comparable. The GC profiler is always on (allocation rate, bytes per op, GC count and time).
+ * Results go to target/jmh-<label>.json unless -rf/-rff say otherwise, where the label comes
+ * from -Dbench.label (default "current"). Compare two runs with any JMH JSON tool, or jq.
+ */
+public final class BenchMain {
+  private BenchMain() {}
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cli = new CommandLineOptions(args);
+    ChainedOptionsBuilder opts = new OptionsBuilder().parent(cli).addProfiler(GCProfiler.class);
+    if (!cli.getResultFormat().hasValue()) opts.resultFormat(ResultFormatType.JSON);
+    if (!cli.getResult().hasValue()) opts.result("target/jmh-" + System.getProperty("bench.label", "current") + ".json");
+    new Runner(opts.build()).run();
+  }
+}
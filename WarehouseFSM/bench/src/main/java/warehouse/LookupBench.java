@@ -0,0 +1,45 @@
+package warehouse;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.State; // the application has its own State
+
+/** ProductCatalog.get and ClientList.get by id, hits at random positions. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx4g")
+public class LookupBench {
+  @Param({ "1000", "100000", "1000000" })
+  public int catalogSize;
+
+  @Param({ "1000", "100000", "1000000" })
+  public int clientCount;
+
+  private ProductCatalog catalog;
+  private ClientList clients;
+  private String[] productIds;
+  private String[] clientIds;
+  private int next;
+
+  @Setup
+  public void setup() {
+    Warehouse w = BenchData.warehouse(clientCount, catalogSize);
+    catalog = w.getProductCatalog();
+    clients = w.getClientList();
+    productIds = BenchData.randomIds("P", catalogSize, 1);
+    clientIds = BenchData.randomIds("C", clientCount, 2);
+  }
+
+  @Benchmark
+  public Product productGet() {
+    return catalog.get(productIds[next++ & (BenchData.IDS - 1)]);
+  }
+
+  @Benchmark
+  public Client clientGet() {
+    return clients.get(clientIds[next++ & (BenchData.IDS - 1)]);
+  }
+}
@@ -0,0 +1,75 @@
+package warehouse;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.State; // the application has its own State
+
+/**
+ * Warehouse.placeOrderFromWishlist, clients in turn. Every call first refills the client's
+ * wishlist (placing an order clears it); refillOnly measures that part alone, so
+ * placeOrder - refillOnly is the cost of placement. Stock never runs out, so every line ships
+ * and each call issues one invoice. No journal is attached: this is the in-memory path.
+ * The warehouse is rebuilt every iteration so invoice history doesn't pile up across the run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx4g")
+public class OrderBench {
+  @Param({ "1000", "100000" })
+  public int clientCount;
+
+  @Param({ "1000", "100000" })
+  public int catalogSize;
+
+  @Param({ "1", "5", "20" })
+  public int wishlistLength;
+
+  private Warehouse w;
+  private Client[] clients;
+  private String[][] lines; // per client: the product ids to wish for
+  private int next;
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    w = BenchData.warehouse(clientCount, catalogSize);
+    Random rnd = new Random(3);
+    clients = new Client[clientCount];
+    lines = new String[clientCount][wishlistLength];
+    for (int c = 0; c < clientCount; c++) {
+      clients[c] = w.findClientById("C" + (c + 1));
+      for (int l = 0; l < wishlistLength; l++) lines[c][l] = "P" + (1 + rnd.nextInt(catalogSize));
+    }
+  }
+
+  @Benchmark
+  public Warehouse.Invoice placeOrder() {
+    int c = nextClient();
+    refill(c);
+    return w.placeOrderFromWishlist(clients[c].getId());
+  }
+
+  @Benchmark
+  public int refillOnly() {
+    int c = nextClient();
+    refill(c);
+    Wishlist wl = clients[c].getWishlist();
+    int n = wl.size();
+    wl.clear();
+    return n;
+  }
+
+  private int nextClient() {
+    int c = next;
+    next = (c + 1 == clientCount) ? 0 : c + 1;
+    return c;
+  }
+
+  private void refill(int c) {
+    Wishlist wl = clients[c].getWishlist();
+    for (String pid : lines[c]) wl.addOrUpdate(pid, 2);
+  }
+}
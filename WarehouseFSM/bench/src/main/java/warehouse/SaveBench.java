@@ -0,0 +1,47 @@
+package warehouse;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.State; // the application has its own State
+
+/**
+ * What Warehouse.save() does, on a warehouse of the given size: snapshot() pauses sessions to
+ * bump the snapshot epoch and rotate the journal, then builds the copy, writes the sharded
+ * snapshot (fsynced) and drops the rotated journal.
+ * save() itself works on the singleton, so the benchmark calls snapshot().get() on its own
+ * warehouse. Files go to a temporary directory (see BenchData.tempDataDirectory) that is removed
+ * after the trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SaveBench {
+  /** Clients get 10 invoices each, see CodecBenchmark.build. */
+  @Param({ "100000", "1000000" })
+  public int invoices;
+
+  private Warehouse w;
+  private Path dataDir;
+
+  @Setup
+  public void setup() throws IOException {
+    dataDir = BenchData.tempDataDirectory();
+    w = CodecBenchmark.build(invoices);
+  }
+
+  @Benchmark
+  public long save() throws Exception {
+    return w.snapshot().get().getBytes();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    w.closeJournal();
+    BenchData.deleteTree(dataDir);
+  }
+}
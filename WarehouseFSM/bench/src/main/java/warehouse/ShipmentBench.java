@@ -0,0 +1,63 @@
+package warehouse;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.State; // the application has its own State
+
+/**
+ * Warehouse.receiveShipment against a waitlist of waitlistDepth backorders (3 units each, one
+ * client after another). The shipment covers fillPercent of the backlog: 100 settles every
+ * entry, 50 settles half and leaves a partial fill. Each iteration is one single-shot call:
+ * before it the waitlist is topped back up through placeOrderFromWishlist (so the per-client
+ * backorder index is maintained as in production), outside the measurement. A per-invocation
+ * setup would run that top-up between microsecond-scale calls and distort them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 200)
+@Measurement(iterations = 500)
+@Fork(value = 2, jvmArgsAppend = "-Xmx4g")
+public class ShipmentBench {
+  private static final int CLIENTS = 10_000;
+  private static final int QTY_PER_ENTRY = 3;
+
+  @Param({ "10", "1000", "100000" })
+  public int waitlistDepth;
+
+  @Param({ "50", "100" })
+  public int fillPercent;
+
+  private Warehouse w;
+  private Product product;
+  private String[] clientIds;
+  private int shipment;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    w = BenchData.warehouse(CLIENTS, 1);
+    product = w.findProductById("P1");
+    clientIds = new String[CLIENTS];
+    for (int c = 0; c < CLIENTS; c++) clientIds[c] = "C" + (c + 1);
+    shipment = (int) ((long) waitlistDepth * QTY_PER_ENTRY * fillPercent / 100);
+  }
+
+  @Setup(Level.Iteration)
+  public void topUp() {
+    product.setOnHandQty(0);
+    for (int n = product.getWaitQueue().liveSize(); n < waitlistDepth; n++) {
+      String cid = clientIds[next];
+      next = (next + 1) % CLIENTS;
+      w.findClientById(cid).getWishlist().addOrUpdate("P1", QTY_PER_ENTRY);
+      w.placeOrderFromWishlist(cid); // no stock: the whole line is backordered
+    }
+    product.setOnHandQty(0);
+  }
+
+  @Benchmark
+  public List<Warehouse.Invoice> receive() {
+    return w.receiveShipment("P1", shipment);
+  }
+}